@@ -1,7 +1,19 @@
 import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
 import java.util.*;
+import java.util.zip.*;
 import java.time.*;
+import java.time.format.*;
+import java.time.temporal.*;
 import java.sql.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.lang.management.*;
+import java.net.*;
+import javax.management.*;
+import com.sun.net.httpserver.*;
 import oracle.jdbc.*;
 import javax.xml.stream.*;
 import javax.xml.stream.events.*;
@@ -13,11 +25,85 @@ public class GraphMLImporter {
   static boolean buildIndexes = true;
   static boolean makeUppercase = true;
 
+  // Rows batched before sending them to the database, rows inserted before committing (0 = no limit)
+  static int flushRows = 10000;
+  static int commitRows = 0;
+
+  // Insert the rows with collection binds instead of JDBC batches, as direct path inserts when possible
+  static boolean arrayInsert = false;
+  static boolean directPath = false;
+
+  // Offline export: write the rows to files in this directory instead of loading them
+  static String outputDir = null;
+  static long splitRows = 0;
+  static boolean compress = false;
+
+  // Values of string properties longer than this (in characters) are not kept in memory: they are
+  // written to a spill file while parsed, then streamed from there into V (0 = keep all in memory)
+  static int largeValues = 4000;
+
+  // Size of the V column of the PG tables: longer values are rejected
+  static final int MAX_VALUE = 15000;
+
+  // Rows with a large value are sent in their own batches of this many rows
+  static final int LARGE_BATCH = 10;
+
+  // Where the graph goes: the Oracle PG tables unless another sink is chosen
+  static GraphSink sink = new OracleSink();
+
   static Instant start;
-  static Instant previous;
 
-  static Map<String, String> keyIdMap = new HashMap<>();
-  static Map<String, Integer> keyTypeMap = new HashMap<>();
+  // Number of elements handed over to the parallel writers at a time
+  static final int PIPELINE_CHUNK = 1000;
+
+  // Parallel parsing: number of parsing threads (0 = parse in the main thread), size of the chunks
+  static int parseThreads = 0;
+  static long chunkSize = 64 << 20;
+
+  // Sharded import: number of files loaded at the same time, each on its own connection (0 = one after the other)
+  static int shards = 0;
+
+  // Restart from the checkpoint of a previous import, checkpoint file (default: next to the GraphML file)
+  static boolean resume = false;
+  static String checkpointFile = null;
+
+  // Degree of parallelism of the graph creation and finishing, hash partitions of a new graph (0 = sized
+  // from the volume of the data and the CPUs of the database), size of the input files
+  static int dop = 0;
+  static int partitions = 0;
+  static long inputBytes = 0;
+
+  // Without a DOP given, one parallel server per 256 MB of data, at most one per CPU of the database
+  // (8 when the CPU count cannot be read). Compressed files are assumed to hold 8 times their size.
+  static final long BYTES_PER_SERVER = 256L << 20;
+  static final long BYTES_PER_PARTITION = 1L << 30;
+  static final int DEFAULT_CPUS = 8;
+  static final int COMPRESSION_RATIO = 8;
+
+  // MERGE action: the vertices and edges already in the graph
+  static Merge merge = null;
+
+  // Check that the edges connect vertices of the file: NO, REPORT the dangling edges, or also REMOVE them
+  static String validate = "NO";
+  static Validator validator = null;
+
+  // Metrics: port of the HTTP endpoint (0 = none), file of the final summary (- = standard output)
+  static int metricsPort = 0;
+  static String summaryFile = null;
+  static Metrics metrics = new Metrics();
+
+  // Property values that do not match the type of their key
+  static Rejects rejects = new Rejects();
+
+  // Key dictionary: the property of each key id, for the vertices and for the edges (the same id may be
+  // declared once for each, as Neo4j does)
+  static Map<String, Key> nodeKeys = new ConcurrentHashMap<>();
+  static Map<String, Key> edgeKeys = new ConcurrentHashMap<>();
+
+  // Labels as written to the tables (uppercase or not), by label as read from the file: the same few
+  // labels repeat for every element, so each one is only converted once
+  static final int MAX_NAMES = 100000;
+  static Map<String, String> labelNames = new ConcurrentHashMap<>();
 
   public static void main(String[] args) throws Exception {
 
@@ -28,9 +114,11 @@ public class GraphMLImporter {
     String graphname  = null;
     String action     = "CREATE";
     String format     = "TINKERPOP";
+    String sinkName   = "ORACLE";
     int    batchsize  = 0;
     long   skipItems  = 0;
     long   numItems   = 0;
+    int    writers    = 0;
 
     int i=0;
     while (i<args.length) {
@@ -45,53 +133,186 @@ public class GraphMLImporter {
         case "-b" : case "--batchsize": batchsize  = Integer.parseInt(args[i+1]); break;
         case "-s" : case "--skipItems": skipItems  = Integer.parseInt(args[i+1]); break;
         case "-n" : case "--numItems":  numItems   = Integer.parseInt(args[i+1]); break;
-        case "-o" : case "--topology":  buildTopology = args[i+1].toUpperCase().equals("YES") ? true : false; break;
-        case "-i" : case "--index":     buildIndexes = args[i+1].toUpperCase().equals("YES") ? true : false; break;
-        case "-U" : case "--uppercase": makeUppercase = args[i+1].toUpperCase().equals("YES") ? true : false; break;
+        case "-r" : case "--flush-rows": flushRows = Integer.parseInt(args[i+1]); break;
+        case "-c" : case "--commit-rows": commitRows = Integer.parseInt(args[i+1]); break;
+        case "-w" : case "--writers":   writers    = Integer.parseInt(args[i+1]); break;
+        case "-m" : case "--insert-mode": arrayInsert = args[i+1].toUpperCase(Locale.ROOT).equals("ARRAY") ? true : false; break;
+        case "-P" : case "--parse-threads": parseThreads = Integer.parseInt(args[i+1]); break;
+        case "-k" : case "--chunk-size": chunkSize = Long.parseLong(args[i+1]) << 20; break;
+        case "-S" : case "--shards":    shards     = Integer.parseInt(args[i+1]); break;
+        case "-R" : case "--resume":    resume     = true; break;
+        case "-C" : case "--checkpoint": checkpointFile = args[i+1]; break;
+        case "-M" : case "--metrics-port": metricsPort = Integer.parseInt(args[i+1]); break;
+        case "-J" : case "--summary":   summaryFile = args[i+1]; break;
+        case "-O" : case "--output-dir": outputDir = args[i+1]; break;
+        case "-x" : case "--split-rows": splitRows = Long.parseLong(args[i+1]); break;
+        case "-z" : case "--compress":  compress   = args[i+1].toUpperCase(Locale.ROOT).equals("GZIP") ? true : false; break;
+        case "-o" : case "--topology":  buildTopology = args[i+1].toUpperCase(Locale.ROOT).equals("YES") ? true : false; break;
+        case "-i" : case "--index":     buildIndexes = args[i+1].toUpperCase(Locale.ROOT).equals("YES") ? true : false; break;
+        case "-D" : case "--dop":       dop        = Integer.parseInt(args[i+1]); break;
+        case "-H" : case "--partitions": partitions = Integer.parseInt(args[i+1]); break;
+        case "-V" : case "--validate":  validate   = args[i+1].toUpperCase(Locale.ROOT); break;
+        case "-L" : case "--large-values": largeValues = Integer.parseInt(args[i+1]); break;
+        case "-K" : case "--sink":      sinkName   = args[i+1].toUpperCase(Locale.ROOT); break;
+        case "-U" : case "--uppercase": makeUppercase = args[i+1].toUpperCase(Locale.ROOT).equals("YES") ? true : false; break;
       }
       i++;
     }
 
-    if (filename == null | jdbcUrl == null | username == null | password == null | graphname == null) {
+    if (filename == null | graphname == null | (outputDir == null & !sinkName.equals("COUNT") & !sinkName.equals("PROFILE") & (jdbcUrl == null | username == null | password == null))) {
       System.out.println ("Parameters:");
-      System.out.println ("  -f/--filename  <filename>:         name of GraphML file to import");
+      System.out.println ("  -f/--filename  <filename>:         name of GraphML file to import: list of files separated by commas, pattern (*.graphml.gz), directory, @manifest, - for standard input");
       System.out.println ("  -d/--jdbcUrl   <JDBC connection>:  JDBC connection string (jdbc:oracle:thin:@server:port/service)");
       System.out.println ("  -u/--username  <User>:             Database user name");
       System.out.println ("  -p/--password  <Password>:         Database user password");
       System.out.println ("  -g/--graphname <graphname>:        Name of the graph to create or load into");
-      System.out.println ("  -a/--action    <action>:           [CREATE] or APPEND or REPLACE or TRUNCATE");
+      System.out.println ("  -a/--action    <action>:           [CREATE] or APPEND or REPLACE or TRUNCATE or MERGE");
       System.out.println ("  -t/--format    <format>:           NEO4J or [TINKERPOP]");
       System.out.println ("  -b/--batchsize <batchsize>:        commit interval (0 = only commit at the end)");
+      System.out.println ("  -r/--flush-rows <rows>:            number of rows sent to the database at a time [10000] (0 = only at commit)");
+      System.out.println ("  -c/--commit-rows <rows>:           number of rows inserted between commits (0 = use the batchsize)");
       System.out.println ("  -s/--skipItem  <skipItems>:        number of items to skip (0 = nothing to skip)");
       System.out.println ("  -n/--numItems  <numItems>:         number of items to read (0 = until the ends)");
+      System.out.println ("  -w/--writers   <writers>:          number of parallel writers, each on its own connection (0 = load on a single connection)");
+      System.out.println ("  -m/--insert-mode <mode>:           [ROW]: insert rows in JDBC batches / ARRAY: insert arrays of rows (direct path with at most one writer)");
+      System.out.println ("  -P/--parse-threads <threads>:      number of threads parsing chunks of the file in parallel (0 = single parser)");
+      System.out.println ("  -k/--chunk-size <MB>:              size of the chunks parsed in parallel [64]");
+      System.out.println ("  -S/--shards    <shards>:           number of files loaded at the same time, each on its own connection (0 = one after the other)");
+      System.out.println ("  -R/--resume:                       restart an interrupted import from its last checkpoint");
+      System.out.println ("  -C/--checkpoint <file>:            checkpoint file (default: <filename>.checkpoint)");
+      System.out.println ("  -M/--metrics-port <port>:          publish the metrics on http://localhost:<port>/metrics during the import (0 = no)");
+      System.out.println ("  -J/--summary   <file>:             write a JSON summary of the import to this file (- = standard output)");
+      System.out.println ("  -O/--output-dir <directory>:       write the rows to files for SQL*Loader or external tables (no database connection)");
+      System.out.println ("  -x/--split-rows <rows>:            number of rows per output file (0 = single file per table)");
+      System.out.println ("  -z/--compress  GZIP/NONE:          [NONE]: compression of the output files");
       System.out.println ("  -o/--topology  YES/NO:             [YES]: populate topology tables / NO: do not populate");
       System.out.println ("  -i/--indexing  YES/NO:             [YES]: create indexes and triggers / NO: do not create");
+      System.out.println ("  -D/--dop       <dop>:              degree of parallelism of the creation of the graph, topology and indexes (0 = from the size of the data)");
+      System.out.println ("  -H/--partitions <partitions>:      number of hash partitions of a new graph (0 = from the size of the data)");
+      System.out.println ("  -V/--validate  NO/REPORT/REMOVE:   [NO]: check that the edges connect vertices of the file / REPORT the others / REPORT and REMOVE them");
+      System.out.println ("  -L/--large-values <chars>:         string values longer than this are streamed from a spill file [4000] (0 = keep all in memory)");
+      System.out.println ("  -K/--sink      <sink>:             [ORACLE]: Oracle PG tables / JDBC: same tables in H2 or PostgreSQL / COUNT: build and count the rows, no database / PROFILE: report the statistics of the graph and the settings to load it, no database");
       System.out.println ("  -U/--uppercase YES/NO:             [YES]: make all property names and labels uppercase");
       System.exit(0);
     }
 
-    isNeo4J = format.toUpperCase().equals("NEO4J") ? true : false;
+    isNeo4J = format.toUpperCase(Locale.ROOT).equals("NEO4J") ? true : false;
 
-    // Make sure we use a US locale. This is so that the database interprets '.' as decimal points
-    // when inserting numbers as strings
-    Locale.setDefault(Locale.US);
+    // Where the rows go: files with an output directory, else the chosen sink
+    if (outputDir != null)
+      sink = new FileSink();
+    else if (sinkName.equals("JDBC"))
+      sink = new JdbcSink();
+    else if (sinkName.equals("COUNT"))
+      sink = new CountSink();
+    else if (sinkName.equals("PROFILE"))
+      sink = new ProfileSink();
 
-    System.out.println("Connecting to Database "+jdbcUrl);
-    Connection conn = DriverManager.getConnection(jdbcUrl, username, password);
-    conn.setAutoCommit(false);
-    switch (action.toUpperCase()) {
-      case ("CREATE"):
-        createGraph(conn, graphname.toUpperCase());
-        break;
-      case ("TRUNCATE"):
-        clearGraph(conn, graphname.toUpperCase());
-        break;
-      case ("REPLACE"):
-        dropGraph(conn, graphname.toUpperCase());
-        createGraph(conn, graphname.toUpperCase());
-        break;
+    if (arrayInsert && sink instanceof JdbcSink) {
+      System.out.println ("Array inserts need an Oracle database: use --insert-mode ROW with the JDBC sink");
+      System.exit(0);
+    }
+
+    if (sink instanceof ProfileSink && (writers > 0 || parseThreads > 0)) {
+      System.out.println ("The profile follows the order of the file: use a single parser and writer");
+      System.exit(0);
+    }
+
+    List<String> filenames = inputFiles(filename);
+    if (filenames.isEmpty()) {
+      System.out.println ("No file matches "+filename);
+      System.exit(0);
+    }
+    boolean plainFiles = true;
+    for (String f : filenames) {
+      plainFiles &= isPlainFile(f);
+      File file = new File(f);
+      if (!f.equals("-"))
+        inputBytes += isPlainFile(f) ? file.length() : file.length() * COMPRESSION_RATIO;
+    }
+
+    if (parseThreads > 0 && !plainFiles) {
+      System.out.println ("Parallel parsing needs uncompressed files (not the standard input)");
+      System.exit(0);
+    }
+
+    if (parseThreads > 0 && (skipItems > 0 || numItems > 0)) {
+      System.out.println ("Parallel parsing does not keep the order of the items: cannot skip or limit them");
+      System.exit(0);
+    }
+
+    if (shards > 0 && (writers > 0 || parseThreads > 0 || resume || skipItems > 0 || numItems > 0 || !sink.connected() || filenames.contains("-"))) {
+      System.out.println ("Each shard is parsed and written by a single worker, into the database: use --writers or --parse-threads without shards, and load the standard input, a restart or a part of the items on their own");
+      System.exit(0);
+    }
+
+    if (action.toUpperCase(Locale.ROOT).equals("MERGE") && (!sink.connected() || resume || skipItems > 0 || numItems > 0)) {
+      System.out.println ("A merge compares the whole file with the graph in the database: it cannot be exported, restarted, skipped or limited");
+      System.exit(0);
+    }
+
+    if (resume && (writers > 0 || parseThreads > 0 || !sink.connected() || skipItems > 0 || filenames.size() > 1 || !plainFiles)) {
+      System.out.println ("Checkpoints are only saved by imports of a single uncompressed file into the database with a single parser and writer, without skipping");
+      System.exit(0);
+    }
+
+    if (!validate.equals("NO") && (resume || skipItems > 0)) {
+      System.out.println ("The validation needs to see all the vertices: it cannot be used with a restart or skipping");
+      System.exit(0);
+    }
+
+    if (validate.equals("REMOVE") && !sink.connected()) {
+      System.out.println ("The dangling edges can only be removed from a graph in the database: use --validate REPORT");
+      System.exit(0);
+    }
+
+    // Parallel direct path inserts would wait for each other's table lock
+    directPath = arrayInsert && writers <= 1 && shards <= 1;
+
+    // Property values that cannot be converted to the type of their key
+    rejects.file = new File(outputDir != null ? outputDir : ".", graphname.toLowerCase(Locale.ROOT) + "_rejects.csv");
+
+    if (!validate.equals("NO"))
+      validator = new Validator(graphname, validate.equals("REMOVE"), sink.connected() && action.equalsIgnoreCase("APPEND"));
+
+    // Expose the metrics while the import runs
+    metrics.start(String.join(",", filenames), graphname);
+    if (metricsPort > 0)
+      metrics.serve(metricsPort);
+    try {
+      // Offline export or count: no database
+      if (!sink.connected()) {
+        if (outputDir != null)
+          System.out.println("Writing files to "+outputDir);
+        else if (sink instanceof ProfileSink)
+          System.out.println("Profiling the graph, without a database");
+        else
+          System.out.println("Counting the rows, without a database");
+        processFile (filenames, null, graphname, batchsize, skipItems, numItems, null, null);
+        return;
+      }
+
+      System.out.println("Connecting to Database "+jdbcUrl);
+      Connection conn = DriverManager.getConnection(jdbcUrl, username, password);
+      conn.setAutoCommit(false);
+      // A restart appends to the graph
+      if (resume)
+        action = "APPEND";
+      sink.open(conn, graphname.toUpperCase(Locale.ROOT), action.toUpperCase(Locale.ROOT));
+      Pipeline pipeline = null;
+      if (writers > 0)
+        pipeline = new Pipeline(writers, jdbcUrl, username, password, graphname, batchsize);
+      Shards shardPool = null;
+      if (shards > 0)
+        shardPool = new Shards(Math.min(shards, filenames.size()), jdbcUrl, username, password);
+      processFile (filenames, conn, graphname, batchsize, skipItems, numItems, pipeline, shardPool);
+    } finally {
+      rejects.close();
+      Spill.deleteAll();
+      metrics.stop();
+      if (summaryFile != null)
+        metrics.writeSummary(summaryFile);
     }
-    processFile (filename, conn, graphname, batchsize, skipItems, numItems);
   }
 
   static void createGraph(Connection conn, String graphname)
@@ -100,18 +321,18 @@ public class GraphMLImporter {
     ResultSet t = md.getTables(null, null, graphname+"VT$", null);
     if (t.next()) {
       // Graph tables already exists
-      System.out.println ("PG graph "+graphname.toUpperCase()+ " already exists");
-      System.out.println ("  Use '-a append' to add to the existing graph");
-      System.out.println ("  Use '-a truncate' to clear the existing graph before importing");
-      System.out.println ("  Use '-a replace' to drop and re-create the graph");
-      System.exit(0);
+      alreadyExists(graphname);
     }
     else {
       // Graph does not exist yet
-      System.out.println ("Creating PG graph "+graphname.toUpperCase());
-      String createPG = "BEGIN OPG_APIS.CREATE_PG(:1, DOP=>8, NUM_HASH_PTNS=>8, OPTIONS=>'SKIP_INDEX=T'); END;";
+      int degree = degreeOfParallelism(conn, inputBytes);
+      int hashPartitions = hashPartitions(degree, inputBytes);
+      System.out.println ("Creating PG graph "+graphname.toUpperCase(Locale.ROOT)+" with "+hashPartitions+" hash partitions");
+      String createPG = "BEGIN OPG_APIS.CREATE_PG(:1, DOP=>:2, NUM_HASH_PTNS=>:3, OPTIONS=>'SKIP_INDEX=T'); END;";
       CallableStatement cs = conn.prepareCall(createPG);
       cs.setString(1, graphname);
+      cs.setInt(2, degree);
+      cs.setInt(3, hashPartitions);
       cs.execute();
 
       // Set all tables to nologging
@@ -124,9 +345,24 @@ public class GraphMLImporter {
     }
   }
 
+  static void alreadyExists(String graphname) {
+    System.out.println ("PG graph "+graphname.toUpperCase(Locale.ROOT)+ " already exists");
+    System.out.println ("  Use '-a append' to add to the existing graph");
+    System.out.println ("  Use '-a truncate' to clear the existing graph before importing");
+    System.out.println ("  Use '-a replace' to drop and re-create the graph");
+    System.exit(0);
+  }
+
+  static boolean graphExists(Connection conn, String graphname)
+  throws Exception {
+    DatabaseMetaData md = conn.getMetaData();
+    ResultSet t = md.getTables(null, null, graphname+"VT$", null);
+    return t.next();
+  }
+
   static void clearGraph(Connection conn, String graphname)
   throws Exception {
-    System.out.println ("Clearing PG graph "+graphname.toUpperCase());
+    System.out.println ("Clearing PG graph "+graphname.toUpperCase(Locale.ROOT));
     CallableStatement cs = conn.prepareCall("begin opg_apis.clear_pg(:1); end;");
     cs.setString(1, graphname);
     cs.execute();
@@ -135,7 +371,7 @@ public class GraphMLImporter {
 
   static void dropGraph(Connection conn, String graphname)
   throws Exception {
-    System.out.println ("Dropping PG graph "+graphname.toUpperCase());
+    System.out.println ("Dropping PG graph "+graphname.toUpperCase(Locale.ROOT));
     CallableStatement cs = conn.prepareCall("begin opg_apis.drop_pg(:1); end;");
     cs.setString(1, graphname);
     try {
@@ -147,35 +383,354 @@ public class GraphMLImporter {
   }
 
   static void processFile(
-    String filename, Connection conn, String graphname, int batchsize, long skipItems, long numItems
+    List<String> filenames, Connection conn, String graphname, int batchsize, long skipItems, long numItems, Pipeline pipeline, Shards shardPool
   ) throws Exception {
-    System.out.println ("Processing file "+filename);
+
+    // Load on the main connection unless the elements go to the parallel writers or the shard workers
+    BatchWriter writer = null;
+    if (pipeline == null && shardPool == null)
+      writer = new BatchWriter(conn, graphname, batchsize, null);
+
+    // Save a restart point at each commit (only possible with a single parser and writer, reading a single plain file),
+    // unless the only commit is the final one (no batchsize, commit rows or direct path inserts)
+    Checkpoint checkpoint = null;
+    boolean intermediateCommits = batchsize > 0 || commitRows > 0 || directPath;
+    if (conn != null && writer != null && parseThreads == 0 && merge == null && filenames.size() == 1 && isPlainFile(filenames.get(0))
+        && (resume || intermediateCommits)) {
+      String filename = filenames.get(0);
+      checkpoint = resume ? Checkpoint.load(filename) : new Checkpoint(filename, skipItems);
+      writer.checkpoint = checkpoint;
+      writer.vCounter = checkpoint.vertices;
+      writer.eCounter = checkpoint.edges;
+      writer.previousItems = writer.startItems = checkpoint.vertices + checkpoint.edges;
+    }
+
+    // The key declarations of all files, before the first row (the standard input can only be read once)
+    if (filenames.size() > 1 && !filenames.contains("-"))
+      readKeys(filenames);
+
+    if (skipItems > 0)
+      System.out.println ("Skipping "+skipItems+" items ...");
+
+    long vCounter = 0;
+    long eCounter = 0;
+    start = Instant.now();
+    try {
+      if (shardPool != null) {
+        long[] counters = shardPool.load(filenames, graphname, batchsize);
+        vCounter = counters[0];
+        eCounter = counters[1];
+      } else if (parseThreads > 0) {
+        for (String filename : filenames) {
+          System.out.println ("Processing file "+filename);
+          long[] counters = parseChunks(filename, writer, pipeline);
+          vCounter += counters[0];
+          eCounter += counters[1];
+        }
+      } else {
+        // The same dispatcher goes through all files, so that skipItems and numItems apply to the whole import
+        Dispatcher dispatcher = new Dispatcher(writer, pipeline, skipItems, numItems);
+        XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+        for (String filename : filenames) {
+          System.out.println ("Processing file "+filename);
+          try (InputStream input = resume ? new CountingInputStream(checkpoint.resume()) : openInput(filename)) {
+            XMLStreamReader xmlReader = inputFactory.createXMLStreamReader(input);
+            if (checkpoint != null && xmlReader.getEncoding() != null)
+              checkpoint.encoding = xmlReader.getEncoding();
+            parse(xmlReader, dispatcher);
+            xmlReader.close();
+          }
+          if (!dispatcher.more())
+            break;
+        }
+        dispatcher.finish();
+        vCounter = dispatcher.vCounter;
+        eCounter = dispatcher.eCounter;
+      }
+      // Final commit (waits for all writers to complete)
+      if (pipeline != null)
+        pipeline.close();
+      else if (writer != null)
+        writer.finish();
+    } catch (Exception e) {
+      // Stop the writers and discard their uncommitted work, also when a writer fails at the end
+      if (pipeline != null)
+        pipeline.abort(e);
+      throw e;
+    }
+
+    // The graph is only finished once all shards are loaded: load the failed ones again, then finish it
+    if (shardPool != null && !shardPool.failed.isEmpty())
+      throw new Exception(shardPool.failed.size()+" of "+filenames.size()+" shards failed" +
+        (sink instanceof OracleSink ? ": the graph is left without topology and indexes" : ""));
+
+    // Remove what is no longer in the file
+    if (merge != null) {
+      System.out.println ("Deleting the removed vertices and edges ...");
+      step("delete", () -> merge.deleteRemoved(conn, graphname));
+      merge.report();
+    }
+
+    rejects.close();
+
+    // Check the edges that came before their vertices
+    if (validator != null) {
+      System.out.println ("Checking the edges read before their vertices ...");
+      step("validate", () -> validator.finish(conn));
+    }
+
+    // Log total import time
+    metrics.loadedNanos = System.nanoTime();
+    System.out.println ("Graph "+graphname.toUpperCase(Locale.ROOT)+" imported in " +
+      ((Instant.now().toEpochMilli()-start.toEpochMilli())/1000) + " sec ");
+
+    // Build topology and/or indexes (the load script does it for an offline export)
+    sink.finish(conn, graphname);
+
+    // Log final time
+    System.out.println ("Graph "+graphname.toUpperCase(Locale.ROOT)+" processed in " +
+      ((Instant.now().toEpochMilli()-start.toEpochMilli())/1000) + " sec ");
+    System.out.println ("- "+vCounter+" vertices");
+    System.out.println ("- "+eCounter+" edges");
+
+    // Nothing left to restart
+    if (checkpoint != null)
+      checkpoint.delete();
+    metrics.status = "completed";
+  }
+
+  // Build topology and/or indexes, once all files are loaded
+  static void finishGraph(Connection conn, String graphname)
+  throws Exception {
+    if (!buildTopology && !buildIndexes)
+      return;
+    // Sized from what the graph now holds (an APPEND or MERGE also rebuilds what was already there)
+    int degree = degreeOfParallelism(conn, graphBytes(conn, graphname));
+    String finishPG;
+    if (buildTopology) {
+      System.out.println ("Creating topology and indexes with DOP "+degree+" ...");
+      finishPG = "BEGIN OPG_APIS.MIGRATE_PG_TO_CURRENT(:1, DOP=>:2); END;";
+    }
+    else {
+      System.out.println ("Creating indexes with DOP "+degree+" ...");
+      finishPG = "BEGIN OPG_APIS.CREATE_PG(:1, DOP=>:2, OPTIONS=>'SKIP_TABLE=T'); END;";
+    }
+    step(buildTopology ? "topology" : "indexes", () -> {
+      CallableStatement cs = conn.prepareCall(finishPG);
+      cs.setString(1, graphname);
+      cs.setInt(2, degree);
+      cs.execute();
+    });
+    metrics.finishNanos = System.nanoTime() - metrics.loadedNanos;
+  }
+
+  interface Step {
+    void run() throws Exception;
+  }
+
+  // Run a step of the import, report its duration and keep it for the summary
+  static void step(String name, Step step)
+  throws Exception {
+    long startStep = System.nanoTime();
+    step.run();
+    double seconds = (System.nanoTime() - startStep) / 1e9;
+    metrics.steps.put(name, seconds);
+    System.out.println ("...completed in " + (long) seconds + " sec ");
+  }
+
+  static int degreeOfParallelism(Connection conn, long bytes) {
+    if (dop > 0)
+      return dop;
+    int cpus = conn != null ? databaseCpus(conn) : 0;
+    if (cpus == 0)
+      cpus = DEFAULT_CPUS;
+    return (int) Math.min(cpus, Math.max(2, bytes / BYTES_PER_SERVER));
+  }
+
+  // One partition per GB of data, at least 8 and at least one per parallel server, so that the index
+  // builds can work partition by partition. Oracle only spreads the rows evenly over a power of 2.
+  static int hashPartitions(int degree, long bytes) {
+    if (partitions > 0)
+      return partitions;
+    long wanted = Math.min(1024, Math.max(8, Math.max(degree, bytes / BYTES_PER_PARTITION)));
+    return Integer.highestOneBit((int) wanted - 1) << 1;
+  }
+
+  // CPU count of the database, 0 if the user cannot read it
+  static int databaseCpus(Connection conn) {
+    try (PreparedStatement ps = conn.prepareStatement("SELECT value FROM v$parameter WHERE name = 'cpu_count'");
+         ResultSet r = ps.executeQuery()) {
+      return r.next() ? Integer.parseInt(r.getString(1).trim()) : 0;
+    } catch (SQLException | NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  // Size of the VT$ and GE$ tables (all their partitions), or what was read when it is not known
+  static long graphBytes(Connection conn, String graphname) {
+    long bytes = 0;
+    try (PreparedStatement ps = conn.prepareStatement("SELECT SUM(bytes) FROM user_segments WHERE segment_name IN (?, ?)")) {
+      ps.setString(1, graphname.toUpperCase(Locale.ROOT) + "VT$");
+      ps.setString(2, graphname.toUpperCase(Locale.ROOT) + "GE$");
+      try (ResultSet r = ps.executeQuery()) {
+        if (r.next())
+          bytes = r.getLong(1);
+      }
+    } catch (SQLException e) {
+      bytes = 0;
+    }
+    return bytes > 0 ? bytes : metrics.getBytesRead();
+  }
+
+  // Input files: a file name, a list of names separated with commas, glob patterns (*.graphml.gz), a
+  // directory (its *.graphml* files), @manifest (a file listing one name per line, relative to the
+  // manifest), or - for the standard input. The files of a pattern or a directory are taken in the
+  // order of their names.
+  static List<String> inputFiles(String names)
+  throws IOException {
+    List<String> files = new ArrayList<>();
+    for (String name : names.split(",")) {
+      name = name.trim();
+      if (name.isEmpty())
+        continue;
+      if (name.startsWith("@")) {
+        Path manifest = Paths.get(name.substring(1));
+        for (String line : Files.readAllLines(manifest, java.nio.charset.StandardCharsets.UTF_8)) {
+          line = line.trim();
+          if (line.isEmpty() || line.startsWith("#"))
+            continue;
+          Path file = Paths.get(line);
+          files.add(file.isAbsolute() || manifest.getParent() == null ? line : manifest.getParent().resolve(file).toString());
+        }
+        continue;
+      }
+      if (!name.equals("-") && Files.isDirectory(Paths.get(name)))
+        name = Paths.get(name, "*.graphml*").toString();
+      if (name.equals("-") || !name.matches(".*[*?\\[{].*")) {
+        files.add(name);
+        continue;
+      }
+      Path pattern = Paths.get(name);
+      Path dir = pattern.getParent() != null ? pattern.getParent() : Paths.get(".");
+      List<String> matches = new ArrayList<>();
+      try (DirectoryStream<Path> paths = Files.newDirectoryStream(dir, pattern.getFileName().toString())) {
+        for (Path path : paths)
+          if (Files.isRegularFile(path))
+            matches.add(pattern.getParent() != null ? path.toString() : path.getFileName().toString());
+      }
+      Collections.sort(matches);
+      files.addAll(matches);
+    }
+    return files;
+  }
+
+  // Compression of a file, from its first bytes: "gzip", "zstd", "bzip2", or null
+  static String compression(byte[] magic, int length) {
+    if (length >= 2 && (magic[0] & 0xff) == 0x1f && (magic[1] & 0xff) == 0x8b)
+      return "gzip";
+    if (length >= 4 && (magic[0] & 0xff) == 0x28 && (magic[1] & 0xff) == 0xb5 && (magic[2] & 0xff) == 0x2f && (magic[3] & 0xff) == 0xfd)
+      return "zstd";
+    if (length >= 3 && magic[0] == 'B' && magic[1] == 'Z' && magic[2] == 'h')
+      return "bzip2";
+    return null;
+  }
+
+  // Is this an uncompressed file (that can be memory-mapped or read from an offset) ?
+  static boolean isPlainFile(String filename)
+  throws IOException {
+    if (filename.equals("-"))
+      return false;
+    try (InputStream in = new FileInputStream(filename)) {
+      byte[] magic = new byte[4];
+      int length = 0;
+      for (int n; length < magic.length && (n = in.read(magic, length, magic.length - length)) > 0; )
+        length += n;
+      return compression(magic, length) == null;
+    }
+  }
+
+  // Open a file (or the standard input) for parsing, through a large buffer. A compressed input
+  // is decompressed on its own thread, so that decompression overlaps with parsing.
+  static InputStream openInput(String filename)
+  throws Exception {
+    InputStream raw = filename.equals("-") ? System.in : new FileInputStream(filename);
+    return decompressed(new CountingInputStream(raw), true);
+  }
+
+  // The input, decompressed if needed (on its own thread for a whole file, in the caller's thread for
+  // a quick look at its beginning)
+  static InputStream decompressed(InputStream raw, boolean background)
+  throws Exception {
+    BufferedInputStream in = new BufferedInputStream(raw, 1 << 20);
+    in.mark(4);
+    byte[] magic = new byte[4];
+    int length = 0;
+    for (int n; length < magic.length && (n = in.read(magic, length, magic.length - length)) > 0; )
+      length += n;
+    in.reset();
+    String compression = compression(magic, length);
+    if (compression == null)
+      return in;
+    InputStream decompressed;
+    switch (compression) {
+      case "gzip":
+        decompressed = new GZIPInputStream(in, 1 << 16);
+        break;
+      case "zstd":
+        decompressed = compressedInput("com.github.luben.zstd.ZstdInputStream", "zstd-jni", in);
+        break;
+      default:
+        decompressed = compressedInput("org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream", "commons-compress", in);
+    }
+    if (!background)
+      return decompressed;
+    System.out.println ("Reading "+compression+" compressed input");
+    return new ReaderThreadInputStream(decompressed);
+  }
+
+  // Read the <key> declarations of all files before loading any of them, so that a key gets the same
+  // name and type in all of them
+  static void readKeys(List<String> filenames)
+  throws Exception {
     XMLInputFactory inputFactory = XMLInputFactory.newInstance();
-    XMLStreamReader xmlReader = inputFactory.createXMLStreamReader(new FileInputStream(filename));
+    for (String filename : filenames)
+      try (InputStream input = decompressed(new FileInputStream(filename), false)) {
+        XMLStreamReader xmlReader = inputFactory.createXMLStreamReader(input);
+        parse(xmlReader, null);
+        xmlReader.close();
+      }
+  }
+
+  // The zstd and bzip2 decompressors come from optional libraries, found on the classpath when needed
+  static InputStream compressedInput(String className, String library, InputStream in)
+  throws Exception {
+    Class<?> decompressor;
+    try {
+      decompressor = Class.forName(className);
+    } catch (ClassNotFoundException e) {
+      throw new Exception("Reading this file requires the "+library+" library in the classpath");
+    }
+    return (InputStream) decompressor.getConstructor(InputStream.class).newInstance(in);
+  }
+
+  // Parse the GraphML elements, and pass each vertex and edge to the handler, until it returns false.
+  // Without a handler, only read the <key> declarations, up to the <graph> element.
+  static void parse(XMLStreamReader xmlReader, ElementHandler handler)
+  throws Exception {
 
     // Vertex Data
     long vid = 0;
     String vLabel = null;
-    Map<String, String> vProps = null;
+    Props vProps = new Props();
     boolean inV = false;
-    Long vCounter = 0L;
 
     // Edge Data
     long eid = 0;
     long svid = 0;
     long dvid = 0;
     String eLabel = null;
-    Map<String, String> eProps = null;
+    Props eProps = new Props();
     boolean inE = false;
-    Long eCounter = 0L;
-
-    // Insert statements
-    PreparedStatement vInsert = conn.prepareStatement(
-      "INSERT INTO " + graphname + "VT$ (vid,vl,k,t,v,vn) VALUES (?,?,?,?,?,?)"
-    );
-    PreparedStatement eInsert = conn.prepareStatement(
-      "INSERT INTO " + graphname + "GE$ (eid,svid,dvid,el,k,t,v,vn) VALUES (?,?,?,?,?,?,?,?)"
-    );
 
     // Label identifiers (passed as properties)
     String vLabelKey;
@@ -187,76 +742,50 @@ public class GraphMLImporter {
       vLabelKey = "labelV";
       eLabelKey = "labelE";
     }
-    String eLabelDefault = "edge";
-    String vLabelDefault = "vertex";
-
-    // Skip counters
-    long skipCounter = skipItems;
-    long numCounter = 0;
-
-    if (skipItems > 0)
-      System.out.println ("Skipping "+skipItems+" items ...");
+    // Neo4j ids start with a letter (n123), and vertex labels with a ":"
+    int prefix = isNeo4J ? 1 : 0;
+    String eLabelDefault = name(labelNames, "edge", 0);
+    String vLabelDefault = name(labelNames, "vertex", 0);
 
-    start = Instant.now();
-    previous = start;
     while (xmlReader.hasNext()) {
-      Integer xmlEvent = xmlReader.next();
+      int xmlEvent = xmlReader.next();
 
       // Process start element
-      if (xmlEvent.equals(XMLEvent.START_ELEMENT)) {
-        String xmlTag = xmlReader.getName().getLocalPart();
+      if (xmlEvent == XMLEvent.START_ELEMENT) {
+        String xmlTag = xmlReader.getLocalName();
         switch (xmlTag) {
 
           // Process <key> element
           // <key id="GENRE" for="node" attr.name="GENRE" attr.type="string"></key>
           case "key":
-            String id = xmlReader.getAttributeValue(null, "id");
-            String attributeName = xmlReader.getAttributeValue(null, "attr.name");
-            String attributeType = xmlReader.getAttributeValue(null, "attr.type");
-            int attributeTypeCode = 1; // if not data type, assume string
-            keyIdMap.put(id, attributeName);
-            // Map the data types to the code in the Oracle PG graph format.
-            if (attributeType != null)
-              switch (attributeType) {
-                case "string":  attributeTypeCode = 1; break;
-                case "int":     attributeTypeCode = 2; break;
-                case "integer": attributeTypeCode = 2; break;
-                case "float":   attributeTypeCode = 3; break;
-                case "double":  attributeTypeCode = 4; break;
-                case "boolean": attributeTypeCode = 6; break;
-                case "long":    attributeTypeCode = 7; break;
-                default:        attributeTypeCode = 1; break;
-              }
-            keyTypeMap.put(id, attributeTypeCode);
+            declareKey(
+              xmlReader.getAttributeValue(null, "id"),
+              xmlReader.getAttributeValue(null, "for"),
+              xmlReader.getAttributeValue(null, "attr.name"),
+              typeCode(xmlReader.getAttributeValue(null, "attr.type"))
+            );
+            break;
+
+          // Process <graph> element: end of the declarations
+          case "graph":
+            if (handler == null)
+              return;
             break;
 
           // Process <node> element
           // <node id="1"><data key="labelV">PERSON</data><data key="ROLE">political authority</data>...</node>
           case "node":
-            if (isNeo4J)
-              vid = Long.parseLong(xmlReader.getAttributeValue(null, "id").substring(1));
-            else
-              vid = Long.parseLong(xmlReader.getAttributeValue(null, "id"));
+            vid = parseId(xmlReader.getAttributeValue(null, "id"), prefix);
             inV = true;
-            vProps = new HashMap<>();
             break;
 
           // Process <edge> element
           // <edge id="1000" source="1" target="2"><data key="labelE">COLLABORATES</data><data key="WEIGHT">1.0</data></edge>
           case "edge":
-            String s;
-            if (isNeo4J) {
-              eid =  Long.parseLong(xmlReader.getAttributeValue(null, "id").substring(1));
-              svid = Long.parseLong(xmlReader.getAttributeValue(null, "source").substring(1));
-              dvid = Long.parseLong(xmlReader.getAttributeValue(null, "target").substring(1));
-            }
-            else {
-              eid =  Long.parseLong(xmlReader.getAttributeValue(null, "id"));
-              svid = Long.parseLong(xmlReader.getAttributeValue(null, "source"));
-              dvid = Long.parseLong(xmlReader.getAttributeValue(null, "target"));
-            }
+            eid =  parseId(xmlReader.getAttributeValue(null, "id"), prefix);
+            svid = parseId(xmlReader.getAttributeValue(null, "source"), prefix);
+            dvid = parseId(xmlReader.getAttributeValue(null, "target"), prefix);
             inE = true;
-            eProps = new HashMap<>();
             break;
 
           // Process <data> element (vertex/edge property or label)
@@ -264,226 +793,3533 @@ public class GraphMLImporter {
           // <data key="labelV">Customer</data>
           case "data":
             String key = xmlReader.getAttributeValue(null, "key");
-            String value = xmlReader.getElementText();
             if (inV) {
               if (key.equals(vLabelKey))
-                if (isNeo4J)
-                  // Remove leading ":" from vertex labels
-                  vLabel = value.substring(1);
-                else
-                  vLabel = value;
+                // Remove leading ":" from Neo4j vertex labels
+                vLabel = name(labelNames, xmlReader.getElementText(), prefix);
               else
-                vProps.put(key,value);
+                readValue(xmlReader, vProps, key(nodeKeys, key));
             } else if (inE) {
               if (key.equals(eLabelKey))
-                eLabel = value;
+                eLabel = name(labelNames, xmlReader.getElementText(), 0);
               else
-                eProps.put(key,value);
-            }
+                readValue(xmlReader, eProps, key(edgeKeys, key));
+            } else
+              xmlReader.getElementText();
             break;
         }
 
       // Process end element
-      } else if (xmlEvent.equals(XMLEvent.END_ELEMENT)) {
-        String xmlTag = xmlReader.getName().getLocalPart();
+      } else if (xmlEvent == XMLEvent.END_ELEMENT) {
+        String xmlTag = xmlReader.getLocalName();
+        boolean more = true;
         switch (xmlTag) {
 
           // Process </node> element
           case "node":
-            if (skipCounter-- <= 0) {
-              if (skipCounter == -1 && skipItems > 0) {
-                System.out.println("... done skipping");
-                start = Instant.now();
-                previous = previous;
-              }
-              numCounter++;
-              // If no label exists, use default label
-              if (vLabel == null)
-                vLabel = vLabelDefault;
-              vCounter++;
-              // Write the vertex to the vertex table
-              writeVertex(vInsert,vid,vLabel,vProps);
-              // Commit batch as requested
-              if (batchsize > 0)
-                commitBatch (vInsert,eInsert,vCounter,eCounter,batchsize,conn);
-              // Reset context
-              vid = 0;
-              vLabel = null;
-              vProps = null;
-              inV = false;
-            }
+            // If no label exists, use default label
+            if (vLabel == null)
+              vLabel = vLabelDefault;
+            more = handler.vertex(vid, vLabel, vProps);
+            // Reset context
+            vid = 0;
+            vLabel = null;
+            vProps.clear();
+            inV = false;
             break;
 
           // Process </edge> element
           case "edge":
-            if (skipCounter-- <= 0) {
-              if (skipCounter == -1 && skipItems > 0) {
-                System.out.println("... done skipping");
-                start = Instant.now();
-                previous = previous;
-              }
-              numCounter++;
-              // If no label exists, use default label
-              if (eLabel == null)
-                eLabel = eLabelDefault;
-              eCounter++;
-              // Write the edge to the edge table
-              writeEdge(eInsert,eid,eLabel,svid, dvid, eProps);
-              // Commit batch as requested
-              if (batchsize > 0)
-                commitBatch (vInsert,eInsert,vCounter,eCounter,batchsize,conn);
-              // Reset context
-              eid = 0;
-              svid = 0;
-              dvid = 0;
-              eLabel = null;
-              eProps = null;
-              inE = false;
-            }
+            // If no label exists, use default label
+            if (eLabel == null)
+              eLabel = eLabelDefault;
+            more = handler.edge(eid, eLabel, svid, dvid, eProps);
+            // Reset context
+            eid = 0;
+            svid = 0;
+            dvid = 0;
+            eLabel = null;
+            eProps.clear();
+            inE = false;
             break;
         }
+        if (!more)
+          return;
       }
+    }
+  }
 
-      if (numItems > 0)
-        if (numCounter >= numItems)
+  // Read the text of a <data> element into the properties. A string value is read chunk by chunk, as
+  // the parser hands it over: once longer than largeValues characters, it goes to the spill file of
+  // the thread instead of memory.
+  static void readValue(XMLStreamReader xmlReader, Props props, Key key)
+  throws Exception {
+    if (largeValues == 0 || key.type != 1) {
+      props.put(key, xmlReader.getElementText());
+      return;
+    }
+    String first = null;
+    StringBuilder text = null;
+    LargeValue large = null;
+    long length = 0;
+    for (int event = xmlReader.next(); event != XMLEvent.END_ELEMENT; event = xmlReader.next()) {
+      switch (event) {
+        case XMLEvent.CHARACTERS: case XMLEvent.CDATA: case XMLEvent.SPACE: case XMLEvent.ENTITY_REFERENCE:
+          String chunk = xmlReader.getText();
+          length += chunk.length();
+          if (large == null && length > largeValues) {
+            large = Spill.current().start();
+            if (text != null)
+              large.append(text);
+            else if (first != null)
+              large.append(first);
+          }
+          if (large != null)
+            large.append(chunk);
+          else if (first == null)
+            first = chunk;
+          else {
+            if (text == null)
+              text = new StringBuilder(first);
+            text.append(chunk);
+          }
           break;
+        case XMLEvent.START_ELEMENT: case XMLEvent.END_DOCUMENT:
+          throw new XMLStreamException("The value of key " + key.id + " is not text only", xmlReader.getLocation());
+      }
+    }
+    if (large != null) {
+      large.finish();
+      metrics.largeValues.increment();
+      props.put(key, large);
+    } else
+      props.put(key, text != null ? text.toString() : first != null ? first : "");
+  }
+
+  // A property key: its id in the file, its name as written to the tables (uppercase or not), and the
+  // code of its type in the Oracle PG format. The parser resolves the key of each <data> once, then the
+  // rows only use the fields.
+  static class Key {
+    final String id;
+    final String scope;
+    final String attributeName;
+    final String name;
+    final int type;
 
+    Key(String id, String scope, String attributeName, int type) {
+      this.id = id;
+      this.scope = scope;
+      this.attributeName = attributeName;
+      // Properties are named after the attr.name of the key, or its id when there is none
+      String name = attributeName != null ? attributeName : id;
+      this.name = makeUppercase ? name.toUpperCase(Locale.ROOT) : name;
+      this.type = type;
     }
-    // Final commit
-    commitBatch (vInsert,eInsert,vCounter,eCounter,-1,conn);
+  }
 
-    // Log total import time
-    System.out.println ("Graph "+graphname.toUpperCase()+" imported in " +
-      ((Instant.now().toEpochMilli()-start.toEpochMilli())/1000) + " sec ");
+  // <key id="GENRE" for="node" attr.name="GENRE" attr.type="string">: for="all" (or none) declares it
+  // for both vertices and edges. Graph keys are ignored. A key declared again (by another file, or by
+  // a checkpoint) is merged with the first declaration.
+  static void declareKey(String id, String scope, String attributeName, int type) {
+    Key key = new Key(id, scope, attributeName, type);
+    if (scope == null || scope.equals("all") || scope.equals("node"))
+      nodeKeys.merge(id, key, GraphMLImporter::mergeKeys);
+    if (scope == null || scope.equals("all") || scope.equals("edge"))
+      edgeKeys.merge(id, key, GraphMLImporter::mergeKeys);
+  }
 
-    // Build topology and/or indexes
-    Instant startFinish = Instant.now();
-    String finishPG = null;
-    if (buildTopology) {
-      System.out.println ("Creating topology and indexes ...");
-      finishPG = "BEGIN OPG_APIS.MIGRATE_PG_TO_CURRENT(:1, DOP=>8); END;";
+  // The first name of the key is kept, and its type widened to fit both declarations: int and long
+  // give a long, different numbers a double, anything else a string
+  static Key mergeKeys(Key first, Key key) {
+    if (first.type == key.type && first.name.equals(key.name))
+      return first;
+    if (!first.name.equals(key.name))
+      warnOnce("Key "+key.id+" declared as "+first.name+" and "+key.name+": named "+first.name);
+    int type = first.type;
+    if (type != key.type) {
+      boolean integers = (type == 2 || type == 7) && (key.type == 2 || key.type == 7);
+      boolean numbers = (type >= 2 && type <= 4 || type == 7) && (key.type >= 2 && key.type <= 4 || key.type == 7);
+      type = integers ? 7 : numbers ? 4 : 1;
+      // The same warning whatever the order of the files (they are read again when loaded)
+      warnOnce("Key "+key.id+" declared as "+TYPE_NAMES[Math.min(first.type, key.type)]+" and "+TYPE_NAMES[Math.max(first.type, key.type)]+": loaded as "+TYPE_NAMES[type]);
     }
-    else if (buildIndexes) {
-      System.out.println ("Creating indexes ...");
-      finishPG = "BEGIN OPG_APIS.CREATE_PG(:1, DOP=>8, OPTIONS=>'SKIP_TABLE=T'); END;";
+    return type == first.type ? first : new Key(first.id, first.scope, first.attributeName, type);
+  }
+
+  // The files declare their keys again when they are loaded: report each difference once
+  static Set<String> warnings = ConcurrentHashMap.newKeySet();
+
+  static void warnOnce(String warning) {
+    if (warnings.add(warning))
+      System.out.println (warning);
+  }
+
+  // GraphML data type of each code of the Oracle PG graph format
+  static final String[] TYPE_NAMES = {null, "string", "int", "float", "double", "dateTime", "boolean", "long"};
+
+  // Map the data types to the code in the Oracle PG graph format (if no data type, assume string)
+  static int typeCode(String attributeType) {
+    if (attributeType == null)
+      return 1;
+    switch (attributeType) {
+      case "string":   return 1;
+      case "int":      return 2;
+      case "integer":  return 2;
+      case "float":    return 3;
+      case "double":   return 4;
+      case "date":     return 5;
+      case "datetime": return 5;
+      case "dateTime": return 5;
+      case "boolean":  return 6;
+      case "long":     return 7;
+      default:         return 1;
     }
-    if (finishPG != null) {
-      CallableStatement cs = conn.prepareCall(finishPG);
-      cs.setString(1, graphname);
-      cs.execute();
-      System.out.println ("...completed in " +
-        ((Instant.now().toEpochMilli()-startFinish.toEpochMilli())/1000) + " sec ");
+  }
+
+  // The key of a <data> element: a key that was not declared is a string property named after its id
+  static Key key(Map<String, Key> keys, String id) {
+    Key key = keys.get(id);
+    if (key == null)
+      key = keys.computeIfAbsent(id, k -> new Key(k, null, null, 1));
+    return key;
+  }
+
+  // Label as written to the tables, from position from of the label read from the file
+  static String name(Map<String, String> names, String s, int from) {
+    if (!makeUppercase && from == 0)
+      return s;
+    String name = names.get(s);
+    if (name == null) {
+      name = makeUppercase ? s.substring(from).toUpperCase(Locale.ROOT) : s.substring(from);
+      // Do not keep a cache of values that do not repeat
+      if (names.size() < MAX_NAMES)
+        names.put(s, name);
     }
+    return name;
+  }
 
-    // Log final time
-    System.out.println ("Graph "+graphname.toUpperCase()+" processed in " +
-      ((Instant.now().toEpochMilli()-start.toEpochMilli())/1000) + " sec ");
-    System.out.println ("- "+vCounter+" vertices");
-    System.out.println ("- "+eCounter+" edges");
+  // Parse the decimal id at position from of s (same as Long.parseLong(s.substring(from)))
+  static long parseId(String s, int from) {
+    int length = s.length();
+    boolean negative = from < length && s.charAt(from) == '-';
+    int p = negative ? from + 1 : from;
+    // Leave the unusual cases (empty, too long to be sure not to overflow) to Long.parseLong
+    if (p == length || length - p > 18)
+      return Long.parseLong(s.substring(from));
+    long id = 0;
+    for (; p < length; p++) {
+      int digit = s.charAt(p) - '0';
+      if (digit < 0 || digit > 9)
+        return Long.parseLong(s.substring(from));
+      id = id * 10 + digit;
+    }
+    return negative ? -id : id;
   }
 
-  // Write a vertex to database
-  static void writeVertex(PreparedStatement vInsert, Long vid, String vLabel, Map<String, String> vProps)
-  throws Exception {
-    if (vProps.size() > 0) {
-      // Write all properties
-      for (Map.Entry<String, String> e : vProps.entrySet()) {
-        String k = e.getKey();
-        String v = e.getValue();
-        if (makeUppercase) {
-          k = k.toUpperCase();
-          vLabel = vLabel.toUpperCase();
-        }
-        int t = keyTypeMap.getOrDefault(k,1);
-        vInsert.setLong   (1, vid);                   // VID (vertex id)
-        vInsert.setString (2, vLabel);                // VL  (label)
-        vInsert.setString (3, k);                     // K   (property name)
-        vInsert.setLong   (4, t);                     // T   (data type)
-        vInsert.setString (5, v);                     // V   (string value)
-        if (t==2|t==3||t==4||t==7)                    // Is this a numeric value ?
-          vInsert.setString (6, v);                   // VN  (numeric value)
-        else
-          vInsert.setString (6, null);                // VN  (numeric value) set to NULL
-        vInsert.addBatch();
+  // Properties of the element being parsed, in the order read. The parser reuses the same
+  // instance for all elements: the handlers must copy it to keep it.
+  static class Props {
+    Key[] keys = new Key[16];
+    String[] values = new String[16];
+    // Values left in the spill file (their value is null), allocated with the first one
+    LargeValue[] large = null;
+    int size = 0;
+
+    // Add a property, or replace its value if already set
+    void put(Key key, String value) {
+      int i = index(key);
+      values[i] = value;
+      if (large != null && large[i] != null) {
+        large[i].release();
+        large[i] = null;
       }
-    } else {
-      // Write empty property (when a vertex has no properties)
-      vInsert.setLong   (1, vid);                     // VID (vertex id)
-      vInsert.setString (2, vLabel);                  // VL  (label)
-      vInsert.setString (3, null);                    // K   (property name)
-      vInsert.setString (4, null);                    // T   (data type)
-      vInsert.setString (5, null);                    // V   (string value)
-      vInsert.setString (6, null);                    // VN  (numeric value) set to NULL
-      vInsert.addBatch();
     }
-  }
 
-  // Write an edge to database
-  static void writeEdge(PreparedStatement eInsert, Long eid, String eLabel, Long svid, Long dvid, Map<String, String> eProps)
-  throws Exception {
-    if (eProps.size() > 0) {
-      // Write all properties
-      for (Map.Entry<String, String> e : eProps.entrySet()) {
-        String k = e.getKey();
-        String v = e.getValue();
-        if (makeUppercase) {
-          k = k.toUpperCase();
-          eLabel = eLabel.toUpperCase();
-        }
-        int t = keyTypeMap.getOrDefault(k,1);
-        eInsert.setLong   (1, eid);                   // EID  (vertex id)
-        eInsert.setLong   (2, svid);                  // SVID (source vertex id)
-        eInsert.setLong   (3, dvid);                  // DVID (destination vertex id)
-        eInsert.setString (4, eLabel);                // EL   (label)
-        eInsert.setString (5, k);                     // K    (property name)
-        eInsert.setLong   (6, t);                     // T    (data type)
-        eInsert.setString (7, v);                     // V    (string value)
-        if (t==2|t==3||t==4||t==7)                    // Is this a numeric value ?
-          eInsert.setString (8, v);                   // VN   (numeric value)
-        else
-          eInsert.setString (8, null);                // VN   (numeric value) set to NULL
-        eInsert.addBatch();
+    void put(Key key, LargeValue value) {
+      int i = index(key);
+      values[i] = null;
+      if (large == null)
+        large = new LargeValue[keys.length];
+      if (large[i] != null)
+        large[i].release();
+      large[i] = value;
+    }
+
+    // Position of the key, added at the end if not set yet
+    int index(Key key) {
+      for (int i = 0; i < size; i++)
+        if (keys[i] == key)
+          return i;
+      if (size == keys.length) {
+        keys = Arrays.copyOf(keys, size * 2);
+        values = Arrays.copyOf(values, size * 2);
+        if (large != null)
+          large = Arrays.copyOf(large, size * 2);
       }
-    } else {
-      // Write empty property (when an edge has no properties)
-      eInsert.setLong   (1, eid);                   // EID  (vertex id)
-      eInsert.setLong   (2, svid);                  // SVID (source vertex id)
-      eInsert.setLong   (3, dvid);                  // DVID (destination vertex id)
-      eInsert.setString (4, eLabel);                // EL   (label)
-      eInsert.setString (5, null);                  // K    (property name)
-      eInsert.setString (6, null);                  // T    (data type)
-      eInsert.setString (7, null);                  // V    (string value)
-      eInsert.setString (8, null);                  // VN   (numeric value) set to NULL
-      eInsert.addBatch();
+      keys[size] = key;
+      return size++;
+    }
+
+    LargeValue large(int i) {
+      return large != null ? large[i] : null;
+    }
+
+    int size() {
+      return size;
+    }
+
+    void clear() {
+      Arrays.fill(keys, 0, size, null);
+      Arrays.fill(values, 0, size, null);
+      if (large != null)
+        Arrays.fill(large, 0, size, null);
+      size = 0;
+    }
+
+    // The element is dropped: its large values are no longer needed
+    void release() {
+      if (large != null)
+        for (int i = 0; i < size; i++)
+          if (large[i] != null)
+            large[i].release();
+    }
+
+    Props copy() {
+      Props p = new Props();
+      p.keys = Arrays.copyOf(keys, Math.max(size, 1));
+      p.values = Arrays.copyOf(values, Math.max(size, 1));
+      if (large != null)
+        p.large = Arrays.copyOf(large, Math.max(size, 1));
+      p.size = size;
+      return p;
     }
   }
 
-  // Commit and log progress
-  static void commitBatch (PreparedStatement vInsert, PreparedStatement eInsert, long vCounter, long eCounter, int batchsize, Connection conn)
-  throws Exception {
-    if ((vCounter+eCounter) % batchsize == 0) {
-      vInsert.executeBatch();
-      eInsert.executeBatch();
-      Instant now = Instant.now();
-      System.out.println (
-        Instant.now() + ": " +
-        vCounter + " vertices, "+eCounter +" edges inserted " +
-        "in " + ( now.toEpochMilli()-previous.toEpochMilli() ) + " ms " +
-        "("  + ( (float)batchsize/(now.toEpochMilli()-previous.toEpochMilli())*1000) + " per second) " +
-        "accumulated: " + (now.toEpochMilli()-start.toEpochMilli()) + " ms " +
-        " "  + ( (float)(vCounter+eCounter)/(now.toEpochMilli()-start.toEpochMilli())*1000) + " per second) "
-      );
-      /*
-      System.out.println(
-        "Memory use:" +
-        "\tFree MB:" + Runtime.getRuntime().freeMemory()/1024/1024 +
-        "\tUsed MB:" + Runtime.getRuntime().totalMemory()/1024/1024 +
-        "\tMax MB:"  + Runtime.getRuntime().maxMemory()/1024/1024
-      );
-      */
-      conn.commit();
-      previous = now;
+  // Spill file of the large values parsed by a thread: the characters are appended as UTF-16, and read
+  // back at their position by any thread. Once all its values are written to the rows (released), the
+  // file is written again from its start. While values are still pending (parallel writers behind the
+  // parser), the thread moves to a new file after SEGMENT_CHARS characters, and the previous file is
+  // deleted with its last value. The files left are deleted at the end of the import.
+  static class Spill {
+    static final List<Spill> all = Collections.synchronizedList(new ArrayList<>());
+    static final ThreadLocal<Spill> spills = new ThreadLocal<>();
+    static final long SEGMENT_CHARS = 1 << 24;
+
+    File file;
+    FileChannel channel;
+    ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+    long chars = 0;
+    // Offset in the file of the start of the buffer
+    long position = 0;
+    // Values not released yet, and whether the thread moved to another file
+    int live = 0;
+    boolean retired = false;
+
+    static Spill current()
+    throws IOException {
+      // A new file once deleted (when the importer runs again in the same JVM), or once full
+      Spill spill = spills.get();
+      if (spill == null || !spill.channel.isOpen() || spill.full()) {
+        spill = new Spill();
+        spill.file = File.createTempFile("graphml-values", ".tmp");
+        spill.file.deleteOnExit();
+        spill.channel = FileChannel.open(spill.file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        spills.set(spill);
+        all.add(spill);
+      }
+      return spill;
+    }
+
+    // Past SEGMENT_CHARS with values still pending: retired, to be deleted with its last value
+    synchronized boolean full() {
+      if (chars < SEGMENT_CHARS || live == 0)
+        return false;
+      retired = true;
+      return true;
+    }
+
+    // Start a value, from the start of the file when no other value is pending
+    synchronized LargeValue start() {
+      if (live == 0)
+        chars = position = 0;
+      live++;
+      return new LargeValue(this, chars);
+    }
+
+    synchronized void release() {
+      if (--live == 0 && retired)
+        delete();
+    }
+
+    void append(CharSequence s, int from, int to)
+    throws IOException {
+      for (int c = from; c < to; c++) {
+        if (buffer.remaining() < 2)
+          write();
+        buffer.putChar(s.charAt(c));
+      }
+      chars += to - from;
+    }
+
+    void write()
+    throws IOException {
+      buffer.flip();
+      while (buffer.hasRemaining())
+        position += channel.write(buffer, position);
+      buffer.clear();
+    }
+
+    void delete() {
+      try {
+        channel.close();
+        file.delete();
+      } catch (IOException e) {
+        // Deleted on exit
+      }
+      all.remove(this);
+    }
+
+    static void deleteAll() {
+      synchronized (all) {
+        for (Spill spill : new ArrayList<>(all))
+          spill.delete();
+        all.clear();
+      }
     }
   }
 
-}
\ No newline at end of file
+  // A value in a spill file: it is written as parsed, then read as many times as needed (merge hash,
+  // row insert) through a Reader, until the writer releases it
+  static class LargeValue {
+    Spill spill;
+    long start;
+    long length = 0;
+    long written = 0;
+
+    LargeValue(Spill spill, long start) {
+      this.spill = spill;
+      this.start = start;
+    }
+
+    // Past the size of V, the value is rejected: only its start and its length are still needed, so
+    // at most MAX_VALUE characters are written
+    void append(CharSequence s)
+    throws IOException {
+      if (written < MAX_VALUE) {
+        int n = (int) Math.min(s.length(), MAX_VALUE - written);
+        spill.append(s, 0, n);
+        written += n;
+      }
+      length += s.length();
+    }
+
+    // Written to the file: readable from any thread
+    void finish()
+    throws IOException {
+      spill.write();
+    }
+
+    // Its rows are written (or it was dropped): its place in the file can be used again
+    void release() {
+      spill.release();
+    }
+
+    Reader reader() {
+      return new SpillReader(spill.channel, start, start + written);
+    }
+
+    // Same hash as RowHash.hash() of the value as a string
+    long hash()
+    throws IOException {
+      long h = 0xCBF29CE484222325L;
+      char[] chars = new char[8192];
+      try (Reader r = reader()) {
+        for (int n; (n = r.read(chars, 0, chars.length)) > 0; )
+          for (int c = 0; c < n; c++) {
+            h ^= chars[c];
+            h *= 0x100000001B3L;
+          }
+      }
+      return length > 0 ? h : 0;
+    }
+
+    // The start of the value, to report it
+    String abbreviated()
+    throws IOException {
+      char[] chars = new char[100];
+      int n;
+      try (Reader r = reader()) {
+        n = Math.max(r.read(chars, 0, chars.length), 0);
+      }
+      return new String(chars, 0, n) + "... (" + length + " characters)";
+    }
+  }
+
+  // Reads characters [from, to) of a spill file, with positional reads
+  static class SpillReader extends Reader {
+    FileChannel channel;
+    long position;
+    long end;
+    ByteBuffer bytes = ByteBuffer.allocate(1 << 16);
+
+    SpillReader(FileChannel channel, long from, long to) {
+      this.channel = channel;
+      this.position = from;
+      this.end = to;
+    }
+
+    public int read(char[] chars, int off, int len)
+    throws IOException {
+      if (position == end)
+        return -1;
+      int n = (int) Math.min(Math.min(len, end - position), bytes.capacity() / 2);
+      bytes.clear().limit(n * 2);
+      while (bytes.hasRemaining())
+        if (channel.read(bytes, position * 2 + bytes.position()) < 0)
+          throw new EOFException("Spill file truncated");
+      bytes.flip();
+      bytes.asCharBuffer().get(chars, off, n);
+      position += n;
+      return n;
+    }
+
+    public void close() {
+    }
+  }
+
+  // Parallel parsing: the file is memory-mapped and its <graph> body cut into chunks of about chunkSize
+  // bytes, at the <node and <edge tags that the parser sees (not those of comments or CDATA sections).
+  // Each chunk is parsed on a pool of parseThreads threads as soon as its end is found, after reading
+  // the <key> declarations. Returns the number of vertices and edges.
+  static long[] parseChunks(String filename, BatchWriter writer, Pipeline pipeline)
+  throws Exception {
+    try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+      long size = channel.size();
+
+      // Read the declarations
+      String encoding;
+      try (InputStream in = new FileInputStream(filename)) {
+        XMLStreamReader header = XMLInputFactory.newInstance().createXMLStreamReader(in);
+        parse(header, null);
+        encoding = header.getEncoding() != null ? header.getEncoding().toUpperCase(Locale.ROOT) : "UTF-8";
+        header.close();
+      }
+      if (!encoding.equals("UTF-8") && !encoding.equals("US-ASCII") && !encoding.startsWith("ISO-8859"))
+        throw new Exception("Parallel parsing does not support the " + encoding + " encoding");
+
+      ForkJoinPool pool = new ForkJoinPool(parseThreads);
+      try {
+        // Cut the body into chunks
+        TagScanner scanner = new TagScanner(channel, size);
+        long bodyEnd = findGraphEnd(channel, size);
+        List<Future<Dispatcher>> results = new ArrayList<>();
+        for (long from = Math.min(scanner.next(1), bodyEnd), to; from < bodyEnd; from = to) {
+          to = bodyEnd - from <= chunkSize ? bodyEnd : Math.min(scanner.after(from + chunkSize), bodyEnd);
+          long chunkStart = from;
+          long chunkEnd = to;
+          results.add(pool.submit(() -> parseChunk(channel, chunkStart, chunkEnd, encoding, writer, pipeline)));
+        }
+        System.out.println ("Parsing "+results.size()+" chunks with "+parseThreads+" threads");
+
+        long[] counters = new long[2];
+        for (Future<Dispatcher> result : results) {
+          Dispatcher dispatcher = result.get();
+          counters[0] += dispatcher.vCounter;
+          counters[1] += dispatcher.eCounter;
+        }
+        return counters;
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof Exception)
+          throw (Exception) e.getCause();
+        throw e;
+      } finally {
+        pool.shutdownNow();
+      }
+    }
+  }
+
+  // Parse a chunk of vertices and edges, wrapped into a <graph> element
+  static Dispatcher parseChunk(FileChannel channel, long from, long to, String encoding, BatchWriter writer, Pipeline pipeline)
+  throws Exception {
+    ByteBuffer body = channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+    InputStream chunk = new SequenceInputStream(Collections.enumeration(Arrays.asList(
+      new ByteArrayInputStream(("<?xml version=\"1.0\" encoding=\"" + encoding + "\"?><graph>").getBytes(encoding)),
+      new CountingInputStream(new BufferInputStream(body)),
+      new ByteArrayInputStream("</graph>".getBytes(encoding))
+    )));
+    XMLStreamReader xmlReader = XMLInputFactory.newInstance().createXMLStreamReader(chunk);
+    Dispatcher dispatcher = new Dispatcher(writer, pipeline, 0, 0);
+    parse(xmlReader, dispatcher);
+    dispatcher.finish();
+    return dispatcher;
+  }
+
+  // Return the offset of the closing "</graph" tag
+  static long findGraphEnd(FileChannel channel, long size)
+  throws IOException {
+    long from = Math.max(0, size - (1 << 20));
+    ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, from, size - from);
+    byte[] tag = "</graph".getBytes("US-ASCII");
+    for (int p = buffer.limit() - tag.length - 1; p >= 0; p--) {
+      int t = 0;
+      while (t < tag.length && buffer.get(p + t) == tag[t])
+        t++;
+      // Not </graphml>
+      if (t == tag.length && (buffer.get(p + t) == '>' || Character.isWhitespace(buffer.get(p + t))))
+        return from + p;
+    }
+    throw new IOException("No </graph> element at the end of the file");
+  }
+
+  // Input stream over a (memory-mapped) buffer
+  static class BufferInputStream extends InputStream {
+    ByteBuffer buffer;
+
+    BufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+    }
+
+    public int read(byte[] b, int off, int len) {
+      if (!buffer.hasRemaining())
+        return -1;
+      len = Math.min(len, buffer.remaining());
+      buffer.get(b, off, len);
+      return len;
+    }
+  }
+
+  // Receives the vertices and edges from the parser: returns false to stop parsing
+  interface ElementHandler {
+    boolean vertex(long vid, String vLabel, Props vProps) throws Exception;
+    boolean edge(long eid, String eLabel, long svid, long dvid, Props eProps) throws Exception;
+  }
+
+  // Skips and counts the parsed elements, then writes them or hands them over to the parallel writers.
+  // The single writer is shared by all parsing threads.
+  static class Dispatcher implements ElementHandler {
+    BatchWriter writer;
+    Pipeline pipeline;
+    List<Element> chunk = new ArrayList<>(PIPELINE_CHUNK);
+    long skipItems;
+    long numItems;
+    long skipCounter;
+    long vCounter = 0;
+    long eCounter = 0;
+    // End of the previous element: the parser works from there to the next one
+    long mark = System.nanoTime();
+
+    Dispatcher(BatchWriter writer, Pipeline pipeline, long skipItems, long numItems) {
+      this.writer = writer;
+      this.pipeline = pipeline;
+      this.skipItems = skipItems;
+      this.numItems = numItems;
+      skipCounter = skipItems;
+    }
+
+    public boolean vertex(long vid, String vLabel, Props vProps)
+    throws Exception {
+      metrics.parse.since(mark);
+      if (skip()) {
+        vProps.release();
+        return parsed();
+      }
+      vCounter++;
+      if (validator != null)
+        validator.vertex(vid);
+      // Write the vertex to the vertex table, or hand it over to the writers
+      if (pipeline != null)
+        add(new Element(false, vid, vLabel, 0, 0, vProps.copy()));
+      else
+        synchronized (writer) {
+          writer.vertex(vid, vLabel, vProps);
+        }
+      return parsed();
+    }
+
+    public boolean edge(long eid, String eLabel, long svid, long dvid, Props eProps)
+    throws Exception {
+      metrics.parse.since(mark);
+      if (skip()) {
+        eProps.release();
+        return parsed();
+      }
+      eCounter++;
+      if (validator != null)
+        validator.edge(eid, svid, dvid);
+      // Write the edge to the edge table, or hand it over to the writers
+      if (pipeline != null)
+        add(new Element(true, eid, eLabel, svid, dvid, eProps.copy()));
+      else
+        synchronized (writer) {
+          writer.edge(eid, eLabel, svid, dvid, eProps);
+        }
+      return parsed();
+    }
+
+    // Done with this element: parse the next one, unless the limit is reached
+    boolean parsed() {
+      mark = System.nanoTime();
+      return more();
+    }
+
+    boolean skip() {
+      if (skipCounter-- > 0)
+        return true;
+      if (skipCounter == -1 && skipItems > 0) {
+        System.out.println("... done skipping");
+        start = Instant.now();
+      }
+      return false;
+    }
+
+    void add(Element e)
+    throws Exception {
+      chunk.add(e);
+      if (chunk.size() >= PIPELINE_CHUNK) {
+        pipeline.put(chunk);
+        chunk = new ArrayList<>(PIPELINE_CHUNK);
+      }
+    }
+
+    // Are more elements wanted ?
+    boolean more() {
+      return numItems == 0 || vCounter+eCounter < numItems;
+    }
+
+    // Hand the last elements over to the writers
+    void finish()
+    throws Exception {
+      if (pipeline != null && !chunk.isEmpty())
+        pipeline.put(chunk);
+      chunk = null;
+    }
+  }
+
+  // Write a vertex to database, return the number of rows batched
+  static int writeVertex(RowTarget rows, long vid, String vLabel, Props vProps)
+  throws Exception {
+    // Write all properties, except the values that do not match their type
+    int written = 0;
+    for (int i = 0; i < vProps.size; i++) {
+      Key key = vProps.keys[i];
+      String k = key.name;
+      int t = key.type;
+      String v = vProps.values[i];
+      LargeValue large = vProps.large(i);
+      Object value;
+      if (large != null) {
+        // Streamed into V, if it fits (as any value)
+        if (large.length > MAX_VALUE) {
+          rows.reject(false, vid, k, t, large.abbreviated());
+          continue;
+        }
+        value = large;
+      } else
+        try {
+          if (v.length() > MAX_VALUE)
+            throw new IllegalArgumentException("Too long");
+          value = typedValue(t, v);
+        } catch (IllegalArgumentException | DateTimeException e) {
+          rows.reject(false, vid, k, t, v);
+          continue;
+        }
+      rows.vertexRow(vid, vLabel, k, t, v, value);
+      written++;
+    }
+    if (written > 0)
+      return written;
+    // Write empty property (when a vertex has no properties)
+    rows.vertexRow(vid, vLabel, null, 0, null, null);
+    return 1;
+  }
+
+  // Write an edge to database, return the number of rows batched
+  static int writeEdge(RowTarget rows, long eid, String eLabel, long svid, long dvid, Props eProps)
+  throws Exception {
+    // Write all properties, except the values that do not match their type
+    int written = 0;
+    for (int i = 0; i < eProps.size; i++) {
+      Key key = eProps.keys[i];
+      String k = key.name;
+      int t = key.type;
+      String v = eProps.values[i];
+      LargeValue large = eProps.large(i);
+      Object value;
+      if (large != null) {
+        // Streamed into V, if it fits (as any value)
+        if (large.length > MAX_VALUE) {
+          rows.reject(true, eid, k, t, large.abbreviated());
+          continue;
+        }
+        value = large;
+      } else
+        try {
+          if (v.length() > MAX_VALUE)
+            throw new IllegalArgumentException("Too long");
+          value = typedValue(t, v);
+        } catch (IllegalArgumentException | DateTimeException e) {
+          rows.reject(true, eid, k, t, v);
+          continue;
+        }
+      rows.edgeRow(eid, svid, dvid, eLabel, k, t, v, value);
+      written++;
+    }
+    if (written > 0)
+      return written;
+    // Write empty property (when an edge has no properties)
+    rows.edgeRow(eid, svid, dvid, eLabel, null, 0, null, null);
+    return 1;
+  }
+
+  // Value of a property converted to the type of its key: a Long (int, long) or a Double (float, double)
+  // for the VN column, an OffsetDateTime (date, datetime, in UTC unless the value has an offset) for
+  // the VT column, null otherwise. The values are parsed the same way whatever the locale.
+  static Object typedValue(int t, String v) {
+    switch (t) {
+      case 2: case 7:
+        return Long.valueOf(v.trim());
+      case 3: case 4:
+        Double d = Double.valueOf(v.trim());
+        if (d.isNaN() || d.isInfinite())
+          throw new NumberFormatException("Not a number: " + v);
+        return d;
+      case 5:
+        return dateTime(v.trim());
+      case 6:
+        if (!v.trim().equalsIgnoreCase("true") && !v.trim().equalsIgnoreCase("false"))
+          throw new IllegalArgumentException("Not a boolean: " + v);
+        return null;
+      default:
+        return null;
+    }
+  }
+
+  // 2020-11-25, 2020-11-25T18:16:31 or 2020-11-25T18:16:31.521+01:00
+  static OffsetDateTime dateTime(String v) {
+    if (v.length() == 10)
+      return LocalDate.parse(v).atStartOfDay().atOffset(ZoneOffset.UTC);
+    TemporalAccessor parsed = DateTimeFormatter.ISO_DATE_TIME.parse(v);
+    if (parsed.isSupported(ChronoField.OFFSET_SECONDS))
+      return OffsetDateTime.from(parsed);
+    return LocalDateTime.from(parsed).atOffset(ZoneOffset.UTC);
+  }
+
+  // Send the batched rows to the database
+  static void flushBatch (BatchWriter w)
+  throws Exception {
+    if (w.pendingRows > 0) {
+      long t = System.nanoTime();
+      if (w.deletes != null)
+        w.deletes.flush();
+      w.rows.flush();
+      metrics.executeBatch.since(t);
+    }
+    w.pendingRows = 0;
+    // The rows are written: the large values they read can be overwritten
+    for (LargeValue value : w.values)
+      value.release();
+    w.values.clear();
+  }
+
+  // Commit and log progress
+  static void commitBatch (BatchWriter w)
+  throws Exception {
+    flushBatch(w);
+    Instant now = Instant.now();
+    if (w.previous == null)
+      w.previous = start;
+    long items = w.vCounter + w.eCounter;
+    long ms = now.toEpochMilli() - w.previous.toEpochMilli();
+    long totalMs = now.toEpochMilli() - start.toEpochMilli();
+    System.out.println (
+      now + ": " + (w.name != null ? w.name + ": " : "") +
+      w.vCounter + " vertices, "+w.eCounter +" edges " + sink.progress() + " " +
+      "in " + ms + " ms " +
+      "(" + perSecond(items - w.previousItems, ms) + " per second) " +
+      "accumulated: " + totalMs + " ms " +
+      "(" + perSecond(items - w.startItems, totalMs) + " per second)"
+    );
+    metrics.heapUsed();
+    if (w.conn != null) {
+      long t = System.nanoTime();
+      w.conn.commit();
+      metrics.commit.since(t);
+    }
+    if (w.checkpoint != null)
+      try {
+        w.checkpoint.save(w.vCounter, w.eCounter);
+      } catch (IOException e) {
+        // The rows are committed: go on without restart points rather than fail the import
+        System.out.println ("Cannot save checkpoint "+w.checkpoint.file+" ("+e+"): the import goes on, but cannot be resumed");
+        w.checkpoint = null;
+      }
+    w.uncommittedRows = 0;
+    w.previousItems = items;
+    w.previous = now;
+  }
+
+  static long perSecond(long count, long ms) {
+    return ms > 0 ? count * 1000 / ms : count;
+  }
+
+  // Can this string be bound in a VARCHAR2(4000) collection ? (assumes an AL32UTF8 database)
+  static boolean fitsVarchar2(String s) {
+    if (s == null || s.length() <= 1000)
+      return true;
+    if (s.length() > 4000)
+      return false;
+    return s.getBytes(java.nio.charset.StandardCharsets.UTF_8).length <= 4000;
+  }
+
+  // A parsed vertex or edge, as handed over to the parallel writers
+  static class Element {
+    boolean isEdge;
+    long id;
+    String label;
+    long svid;
+    long dvid;
+    Props props;
+
+    Element(boolean isEdge, long id, String label, long svid, long dvid, Props props) {
+      this.isEdge = isEdge;
+      this.id = id;
+      this.label = label;
+      this.svid = svid;
+      this.dvid = dvid;
+      this.props = props;
+    }
+  }
+
+  // Where the graph goes. The sink prepares the graph for the action, gives each writer the target of
+  // its rows (on the writer's connection), and finishes the graph once all the rows are committed.
+  interface GraphSink {
+    // Does it write to a database, through the connections of the writers ?
+    default boolean connected() {
+      return true;
+    }
+
+    default void open(Connection conn, String graphname, String action) throws Exception {
+    }
+
+    RowTarget rows(Connection conn, String graphname) throws Exception;
+
+    // What the progress messages say of the vertices and edges committed
+    default String progress() {
+      return "inserted";
+    }
+
+    default void finish(Connection conn, String graphname) throws Exception {
+    }
+  }
+
+  // Oracle PG tables, created and finished through OPG_APIS
+  static class OracleSink implements GraphSink {
+
+    public void open(Connection conn, String graphname, String action)
+    throws Exception {
+      switch (action) {
+        case ("CREATE"):
+          createGraph(conn, graphname);
+          break;
+        case ("TRUNCATE"):
+          clearGraph(conn, graphname);
+          break;
+        case ("REPLACE"):
+          dropGraph(conn, graphname);
+          createGraph(conn, graphname);
+          break;
+        case ("MERGE"):
+          // Merging into a new graph is just a load
+          if (graphExists(conn, graphname))
+            merge = Merge.load(conn, graphname);
+          else
+            createGraph(conn, graphname);
+          break;
+      }
+    }
+
+    public RowTarget rows(Connection conn, String graphname)
+    throws Exception {
+      if (arrayInsert)
+        return new ArrayRows(conn, graphname, directPath);
+      return new StatementRows(conn, graphname);
+    }
+
+    public void finish(Connection conn, String graphname)
+    throws Exception {
+      finishGraph(conn, graphname);
+    }
+  }
+
+  // The VT$ and GE$ tables through plain JDBC, in a database that accepts $ in table names and the
+  // TIMESTAMP WITH TIME ZONE type (H2, PostgreSQL): to run the importer against an embedded H2 database
+  // for tests and benchmarks. The tables are created when missing, without partitions, topology or
+  // indexes. VN is a double (NUMBER has no portable equivalent): longs above 2^53 are rounded in it, V
+  // keeps their exact value.
+  static class JdbcSink implements GraphSink {
+
+    public void open(Connection conn, String graphname, String action)
+    throws Exception {
+      boolean exists = tableExists(conn, graphname + "VT$");
+      switch (action) {
+        case ("CREATE"):
+          if (exists)
+            alreadyExists(graphname);
+          createTables(conn, graphname);
+          break;
+        case ("TRUNCATE"):
+          System.out.println ("Clearing tables "+graphname+"VT$ and "+graphname+"GE$");
+          execute(conn, "DELETE FROM " + graphname + "VT$");
+          execute(conn, "DELETE FROM " + graphname + "GE$");
+          conn.commit();
+          break;
+        case ("REPLACE"):
+          if (exists) {
+            System.out.println ("Dropping tables "+graphname+"VT$ and "+graphname+"GE$");
+            execute(conn, "DROP TABLE " + graphname + "VT$");
+            execute(conn, "DROP TABLE " + graphname + "GE$");
+          }
+          createTables(conn, graphname);
+          break;
+        case ("MERGE"):
+          if (exists)
+            merge = Merge.load(conn, graphname);
+          else
+            createTables(conn, graphname);
+          break;
+        default:
+          if (!exists)
+            createTables(conn, graphname);
+      }
+    }
+
+    void createTables(Connection conn, String graphname)
+    throws Exception {
+      System.out.println ("Creating tables "+graphname+"VT$ and "+graphname+"GE$");
+      execute(conn, "CREATE TABLE " + graphname + "VT$ (VID BIGINT, VL VARCHAR(3100), K VARCHAR(3100), T INTEGER, V VARCHAR(15000), VN DOUBLE PRECISION, VT TIMESTAMP WITH TIME ZONE)");
+      execute(conn, "CREATE TABLE " + graphname + "GE$ (EID BIGINT, SVID BIGINT, DVID BIGINT, EL VARCHAR(3100), K VARCHAR(3100), T INTEGER, V VARCHAR(15000), VN DOUBLE PRECISION, VT TIMESTAMP WITH TIME ZONE)");
+      conn.commit();
+    }
+
+    static void execute(Connection conn, String sql)
+    throws SQLException {
+      try (Statement s = conn.createStatement()) {
+        s.execute(sql);
+      }
+    }
+
+    // Table names are stored in uppercase by most databases, in lowercase by some (PostgreSQL)
+    static boolean tableExists(Connection conn, String table)
+    throws SQLException {
+      DatabaseMetaData md = conn.getMetaData();
+      String name = md.storesLowerCaseIdentifiers() ? table.toLowerCase(Locale.ROOT) : table;
+      try (ResultSet t = md.getTables(null, null, name, null)) {
+        return t.next();
+      }
+    }
+
+    public RowTarget rows(Connection conn, String graphname)
+    throws Exception {
+      return new StatementRows(conn, graphname);
+    }
+  }
+
+  // Offline export to files (--output-dir): the load script creates and finishes the graph
+  static class FileSink implements GraphSink {
+
+    public boolean connected() {
+      return false;
+    }
+
+    public String progress() {
+      return "written";
+    }
+
+    public RowTarget rows(Connection conn, String graphname)
+    throws Exception {
+      return new FileRows(outputDir, graphname);
+    }
+  }
+
+  // No database: the rows are built, counted and dropped. The summary then shows the time spent parsing
+  // and building the rows, without the time of the database.
+  static class CountSink implements GraphSink {
+    LongAdder values = new LongAdder();
+
+    public boolean connected() {
+      return false;
+    }
+
+    public String progress() {
+      return "counted";
+    }
+
+    public RowTarget rows(Connection conn, String graphname) {
+      return new CountRows(values);
+    }
+
+    public void finish(Connection conn, String graphname) {
+      System.out.println ("- "+metrics.getRows()+" rows built, with "+values.sum()+" characters of values");
+    }
+  }
+
+  // Dry run, without a database: the rows are built and profiled, then the statistics of the graph are
+  // reported with the settings they suggest for the real load
+  static class ProfileSink implements GraphSink {
+    Profile profile = new Profile();
+
+    public boolean connected() {
+      return false;
+    }
+
+    public String progress() {
+      return "profiled";
+    }
+
+    // A single writer (the profile follows the order of the file)
+    public RowTarget rows(Connection conn, String graphname) {
+      return profile;
+    }
+
+    public void finish(Connection conn, String graphname) {
+      profile.finish();
+      profile.report(graphname);
+      metrics.profile = profile;
+    }
+  }
+
+  // Destination of the VT$ and GE$ rows built by writeVertex and writeEdge. The type t is 0 for the
+  // empty property row, so that T is set to NULL. The value is v converted by typedValue, or the
+  // LargeValue holding v (then null) when it was too large to be kept in memory.
+  interface RowTarget {
+    void vertexRow(long vid, String vl, String k, int t, String v, Object value) throws Exception;
+    void edgeRow(long eid, long svid, long dvid, String el, String k, int t, String v, Object value) throws Exception;
+    void flush() throws Exception;
+    void close() throws Exception;
+
+    // Are rows waiting that must be sent before the next element (the rows with a large value) ?
+    default boolean flushNeeded() {
+      return false;
+    }
+
+    // A value that does not match the type of its key: the property is left out
+    default void reject(boolean isEdge, long id, String k, int t, String v)
+    throws IOException {
+      rejects.add(isEdge, id, k, t, v);
+    }
+  }
+
+  // Counting sink: only counts the characters of the values
+  static class CountRows implements RowTarget {
+    LongAdder values;
+    long chars = 0;
+
+    CountRows(LongAdder values) {
+      this.values = values;
+    }
+
+    public void vertexRow(long vid, String vl, String k, int t, String v, Object value) {
+      count(v, value);
+    }
+
+    public void edgeRow(long eid, long svid, long dvid, String el, String k, int t, String v, Object value) {
+      count(v, value);
+    }
+
+    void count(String v, Object value) {
+      if (v != null)
+        chars += v.length();
+      else if (value instanceof LargeValue)
+        chars += ((LargeValue) value).length;
+    }
+
+    public void flush() {
+      values.add(chars);
+      chars = 0;
+    }
+
+    public void close() {
+      flush();
+    }
+  }
+
+  // Statistics of the graph, from the rows of its vertices and edges in the order of the file: the
+  // elements of each table with their labels and ids, the properties and what their values look like,
+  // and the estimated size of the tables. All the rows of an element come together: a new id starts a
+  // new element.
+  static class Profile implements RowTarget {
+    // Distinct values counted per key, bounds of the value sizes (in characters), lines per list
+    static final int DISTINCT_LIMIT = 1000;
+    static final int[] SIZE_BOUNDS = {10, 100, 1000, 4000, MAX_VALUE};
+    static final int REPORT_LINES = 50;
+
+    // Recommended commit interval: about this many rows per commit
+    static final long COMMIT_ROWS = 100000;
+
+    // The vertices (VT$) or the edges (GE$)
+    static class Table {
+      String name;
+      String element;
+      String table;
+      long elements = 0;
+      long rows = 0;
+      long bytes = 0;
+      long properties = 0;
+      int maxProperties = 0;
+      long minId = Long.MAX_VALUE;
+      long maxId = Long.MIN_VALUE;
+      long lastId = 0;
+      long descending = 0;
+      Map<String, long[]> labels = new HashMap<>();
+      Map<String, KeyProfile> keys = new LinkedHashMap<>();
+
+      Table(String name, String element, String table) {
+        this.name = name;
+        this.element = element;
+        this.table = table;
+      }
+
+      // Estimated size of the table: the rows, and the 10% of each block left free (PCTFREE)
+      long tableBytes() {
+        return bytes * 10 / 9;
+      }
+    }
+
+    // Values of a key: how many, how many distinct (up to DISTINCT_LIMIT), and the types they all match
+    static class KeyProfile {
+      int type;
+      long values = 0;
+      long typed = 0;
+      long rejected = 0;
+      Set<Long> distinct = new HashSet<>();
+      boolean isInt = true;
+      boolean isLong = true;
+      boolean isDouble = true;
+      boolean isBoolean = true;
+      boolean isDate = true;
+
+      KeyProfile(int type) {
+        this.type = type;
+      }
+
+      // A value (null for a large value, that is none of the types)
+      void value(String v, long hash) {
+        values++;
+        if (distinct != null) {
+          distinct.add(hash);
+          if (distinct.size() > DISTINCT_LIMIT)
+            distinct = null;
+        }
+        if (v == null) {
+          isInt = isLong = isDouble = isBoolean = isDate = false;
+          return;
+        }
+        // Empty values say nothing of the type
+        if (v.isEmpty())
+          return;
+        typed++;
+        // Each type is tried until a value does not match it
+        if (isLong)
+          try {
+            long n = (Long) typedValue(7, v);
+            isInt &= n == (int) n;
+          } catch (NumberFormatException e) {
+            isInt = isLong = false;
+          }
+        isDouble = isDouble && matches(4, v);
+        isBoolean = isBoolean && matches(6, v);
+        isDate = isDate && matches(5, v);
+      }
+
+      static boolean matches(int t, String v) {
+        try {
+          typedValue(t, v);
+          return true;
+        } catch (IllegalArgumentException | DateTimeException e) {
+          return false;
+        }
+      }
+
+      // Most precise type of all the values
+      String inferred() {
+        if (typed == 0)
+          return TYPE_NAMES[1];
+        if (isInt)
+          return TYPE_NAMES[2];
+        if (isLong)
+          return TYPE_NAMES[7];
+        if (isDouble)
+          return TYPE_NAMES[4];
+        if (isBoolean)
+          return TYPE_NAMES[6];
+        if (isDate)
+          return TYPE_NAMES[5];
+        return TYPE_NAMES[1];
+      }
+    }
+
+    Table vertices = new Table("Vertices", "Vertex", "VT$");
+    Table edges = new Table("Edges", "Edge", "GE$");
+
+    // Current element, its properties, and the order of the vertices and edges
+    Table current = null;
+    long currentId;
+    boolean labelled;
+    int properties;
+    Table first = null;
+    long switches = 0;
+
+    // Sizes of the values loaded
+    long[] sizes = new long[SIZE_BOUNDS.length];
+    long values = 0;
+    long chars = 0;
+    int maxSize = 0;
+
+    // Recommended settings, from the estimated size of the tables
+    long bytes;
+    int degree;
+    int hashPartitions;
+    long batchsize;
+
+    public void vertexRow(long vid, String vl, String k, int t, String v, Object value)
+    throws IOException {
+      element(vertices, vid, vl);
+      row(vertices, k, t, v, value, rowBytes(
+        numberBytes(vid), textBytes(vl), textBytes(k), t > 0 ? 2 : -1, valueBytes(v, value), numberBytes(value), timestampBytes(value)
+      ));
+    }
+
+    public void edgeRow(long eid, long svid, long dvid, String el, String k, int t, String v, Object value)
+    throws IOException {
+      element(edges, eid, el);
+      row(edges, k, t, v, value, rowBytes(
+        numberBytes(eid), numberBytes(svid), numberBytes(dvid), textBytes(el), textBytes(k), t > 0 ? 2 : -1, valueBytes(v, value), numberBytes(value), timestampBytes(value)
+      ));
+    }
+
+    // Rejected values are part of the properties of the file, but not of the rows
+    public void reject(boolean isEdge, long id, String k, int t, String v)
+    throws IOException {
+      Table table = isEdge ? edges : vertices;
+      if (table != current || id != currentId)
+        start(table, id);
+      properties++;
+      KeyProfile key = key(table, k, t);
+      key.value(v, RowHash.hash(v));
+      key.rejected++;
+      RowTarget.super.reject(isEdge, id, k, t, v);
+    }
+
+    // The first row of an element counts its label (the rejected values before it do not have it)
+    void element(Table table, long id, String label) {
+      if (table != current || id != currentId)
+        start(table, id);
+      if (labelled)
+        return;
+      table.labels.computeIfAbsent(label, l -> new long[1])[0]++;
+      labelled = true;
+    }
+
+    void start(Table table, long id) {
+      end();
+      if (first == null)
+        first = table;
+      else if (table != current)
+        switches++;
+      if (table.elements > 0 && id < table.lastId)
+        table.descending++;
+      table.lastId = id;
+      table.minId = Math.min(table.minId, id);
+      table.maxId = Math.max(table.maxId, id);
+      table.elements++;
+      current = table;
+      currentId = id;
+      labelled = false;
+      properties = 0;
+    }
+
+    // The previous element is complete
+    void end() {
+      if (current == null)
+        return;
+      current.properties += properties;
+      current.maxProperties = Math.max(current.maxProperties, properties);
+    }
+
+    void row(Table table, String k, int t, String v, Object value, long rowBytes)
+    throws IOException {
+      table.rows++;
+      table.bytes += rowBytes;
+      // The empty property row of an element without properties
+      if (k == null)
+        return;
+      properties++;
+      int length = value instanceof LargeValue ? (int) ((LargeValue) value).length : v.length();
+      int i = 0;
+      while (length > SIZE_BOUNDS[i])
+        i++;
+      sizes[i]++;
+      values++;
+      chars += length;
+      maxSize = Math.max(maxSize, length);
+      key(table, k, t).value(value instanceof LargeValue ? null : v, RowHash.hash(v, value));
+    }
+
+    KeyProfile key(Table table, String k, int t) {
+      return table.keys.computeIfAbsent(k, name -> new KeyProfile(t));
+    }
+
+    // Estimated size of a row: a 3 byte header, then each column with its length (1 byte, 3 past 250
+    // bytes) and its data, or a byte for NULL. The NULL columns at the end of the row take nothing.
+    static long rowBytes(int... columns) {
+      int last = columns.length;
+      while (last > 0 && columns[last - 1] < 0)
+        last--;
+      long bytes = 3;
+      for (int i = 0; i < last; i++)
+        bytes += columns[i] < 0 ? 1 : columns[i] + (columns[i] > 250 ? 3 : 1);
+      return bytes;
+    }
+
+    // NVARCHAR2: 2 bytes per character (AL16UTF16), NULL when empty
+    static int textBytes(String s) {
+      return s == null || s.isEmpty() ? -1 : 2 * s.length();
+    }
+
+    static int valueBytes(String v, Object value) {
+      return value instanceof LargeValue ? 2 * (int) ((LargeValue) value).length : textBytes(v);
+    }
+
+    // NUMBER: an exponent byte, then a byte per 2 digits without the trailing zeros (and a byte more
+    // for a negative number)
+    static int numberBytes(long n) {
+      if (n == 0)
+        return 1;
+      int bytes = n < 0 ? 2 : 1;
+      while (n % 100 == 0)
+        n /= 100;
+      for (; n != 0; n /= 100)
+        bytes++;
+      return bytes;
+    }
+
+    static int numberBytes(Object value) {
+      if (value instanceof Long)
+        return numberBytes((long) (Long) value);
+      if (!(value instanceof Double))
+        return -1;
+      java.math.BigDecimal d = java.math.BigDecimal.valueOf((Double) value).stripTrailingZeros();
+      if (d.signum() == 0)
+        return 1;
+      return 1 + (d.precision() + 1) / 2 + (d.signum() < 0 ? 1 : 0);
+    }
+
+    // TIMESTAMP WITH TIME ZONE
+    static int timestampBytes(Object value) {
+      return value instanceof OffsetDateTime ? 13 : -1;
+    }
+
+    public void flush() {
+    }
+
+    public void close() {
+    }
+
+    // All rows are seen: size the graph as the import would from these tables. The commit interval
+    // gives about COMMIT_ROWS rows per commit, rounded down to 1, 2 or 5 times a power of ten.
+    void finish() {
+      end();
+      bytes = vertices.tableBytes() + edges.tableBytes();
+      degree = degreeOfParallelism(null, bytes);
+      hashPartitions = hashPartitions(degree, bytes);
+      long items = vertices.elements + edges.elements;
+      long wanted = rows() > 0 ? Math.max(1, COMMIT_ROWS * items / rows()) : 1;
+      long p = 1;
+      while (p * 10 <= wanted)
+        p *= 10;
+      batchsize = wanted >= 5 * p ? 5 * p : wanted >= 2 * p ? 2 * p : p;
+    }
+
+    void report(String graphname) {
+      System.out.println ("Profile of graph "+graphname.toUpperCase(Locale.ROOT));
+      report(vertices);
+      report(edges);
+
+      System.out.println ("Property values: "+values+" loaded, "+average(chars, values)+" characters on average, at most "+maxSize);
+      long from = 0;
+      for (int i = 0; i < SIZE_BOUNDS.length; i++) {
+        System.out.println ("  "+from+" to "+SIZE_BOUNDS[i]+" characters: "+sizes[i]);
+        from = SIZE_BOUNDS[i] + 1;
+      }
+      if (metrics.largeValues.sum() > 0)
+        System.out.println ("  "+metrics.largeValues.sum()+" values longer than "+largeValues+" characters streamed from the spill files");
+      if (rejects.count.sum() > 0)
+        System.out.println ("  "+rejects.count.sum()+" values rejected (longer than "+MAX_VALUE+" characters or not matching their type)");
+
+      if (first == null)
+        System.out.println ("Order: no vertex or edge");
+      else if (switches == 0)
+        System.out.println ("Order: only "+first.name.toLowerCase(Locale.ROOT));
+      else if (switches == 1)
+        System.out.println ("Order: the "+first.name.toLowerCase(Locale.ROOT)+" first, then the "+(first == vertices ? "edges" : "vertices"));
+      else
+        System.out.println ("Order: vertices and edges interleaved ("+switches+" changes)");
+
+      System.out.println ("Estimated size: "+vertices.rows+" rows in "+vertices.table+" ("+megabytes(vertices.tableBytes())+"), "+edges.rows+" rows in "+edges.table+" ("+megabytes(edges.tableBytes())+"), without the indexes");
+      System.out.println ("Recommended settings: -b "+batchsize+" -H "+hashPartitions+" -D "+degree);
+      System.out.println ("  -b: about "+COMMIT_ROWS+" rows per commit, with "+average(rows(), vertices.elements + edges.elements)+" rows per vertex or edge");
+      System.out.println ("  -H and -D: from the estimated size of the tables, with at most "+DEFAULT_CPUS+" parallel servers (the CPUs of the database are not known)");
+    }
+
+    void report(Table table) {
+      System.out.println (table.name+": "+table.elements+(table.elements == 0 ? "" : ", ids "+table.minId+" to "+table.maxId +
+        (table.descending == 0 ? " in ascending order" : ", "+table.descending+" lower than the previous one")));
+      List<Map.Entry<String, long[]>> labels = new ArrayList<>(table.labels.entrySet());
+      labels.sort((a, b) -> Long.compare(b.getValue()[0], a.getValue()[0]));
+      int lines = 0;
+      for (Map.Entry<String, long[]> label : labels) {
+        if (lines++ == REPORT_LINES) {
+          System.out.println ("  ... and "+(labels.size() - REPORT_LINES)+" more labels");
+          break;
+        }
+        System.out.println ("  "+label.getKey()+": "+label.getValue()[0]);
+      }
+
+      System.out.println (table.element+" properties: "+average(table.properties, table.elements)+" on average, at most "+table.maxProperties);
+      lines = 0;
+      for (Map.Entry<String, KeyProfile> entry : table.keys.entrySet()) {
+        if (lines++ == REPORT_LINES) {
+          System.out.println ("  ... and "+(table.keys.size() - REPORT_LINES)+" more properties");
+          break;
+        }
+        KeyProfile key = entry.getValue();
+        System.out.println ("  "+entry.getKey()+": "+TYPE_NAMES[key.type]+", values look like "+key.inferred()+", "+key.values+" values, " +
+          (key.distinct != null ? key.distinct.size()+" distinct" : "more than "+DISTINCT_LIMIT+" distinct") +
+          (key.rejected > 0 ? ", "+key.rejected+" rejected" : ""));
+      }
+    }
+
+    long rows() {
+      return vertices.rows + edges.rows;
+    }
+
+    static String average(long total, long count) {
+      return String.format(Locale.ROOT, "%.1f", count > 0 ? (double) total / count : 0.0);
+    }
+
+    static String megabytes(long bytes) {
+      return String.format(Locale.ROOT, "%.1f MB", bytes / 1048576.0);
+    }
+
+    String json() {
+      StringBuilder s = new StringBuilder("{");
+      s.append("\"vertexRows\": ").append(vertices.rows).append(", ");
+      s.append("\"vertexBytes\": ").append(vertices.tableBytes()).append(", ");
+      s.append("\"edgeRows\": ").append(edges.rows).append(", ");
+      s.append("\"edgeBytes\": ").append(edges.tableBytes()).append(", ");
+      s.append("\"vertexLabels\": ").append(labels(vertices)).append(", ");
+      s.append("\"edgeLabels\": ").append(labels(edges)).append(", ");
+      s.append("\"batchsize\": ").append(batchsize).append(", ");
+      s.append("\"partitions\": ").append(hashPartitions).append(", ");
+      s.append("\"dop\": ").append(degree);
+      return s.append("}").toString();
+    }
+
+    static String labels(Table table) {
+      StringBuilder s = new StringBuilder("{");
+      String separator = "";
+      for (Map.Entry<String, long[]> label : table.labels.entrySet()) {
+        s.append(separator).append(Metrics.quote(label.getKey())).append(": ").append(label.getValue()[0]);
+        separator = ", ";
+      }
+      return s.append("}").toString();
+    }
+  }
+
+  // Row insert: binds each row in a JDBC batch. The rows with a large value have V bound as a character
+  // stream, in their own small batches: the driver does not keep them in memory with the other rows.
+  static class StatementRows implements RowTarget {
+    static final String V_INSERT = "INSERT INTO %sVT$ (vid,vl,k,t,v,vn,vt) VALUES (?,?,?,?,?,?,?)";
+    static final String E_INSERT = "INSERT INTO %sGE$ (eid,svid,dvid,el,k,t,v,vn,vt) VALUES (?,?,?,?,?,?,?,?,?)";
+
+    Connection conn;
+    String graphname;
+    PreparedStatement vInsert;
+    PreparedStatement eInsert;
+    int vCount = 0;
+    int eCount = 0;
+    // Rows with a large value
+    PreparedStatement vLarge;
+    PreparedStatement eLarge;
+    int vLargeCount = 0;
+    int eLargeCount = 0;
+
+    StatementRows(Connection conn, String graphname)
+    throws Exception {
+      this.conn = conn;
+      this.graphname = graphname;
+      vInsert = conn.prepareStatement(String.format(Locale.ROOT, V_INSERT, graphname));
+      eInsert = conn.prepareStatement(String.format(Locale.ROOT, E_INSERT, graphname));
+    }
+
+    public void vertexRow(long vid, String vl, String k, int t, String v, Object value)
+    throws Exception {
+      boolean large = value instanceof LargeValue;
+      if (large && vLarge == null)
+        vLarge = conn.prepareStatement(String.format(Locale.ROOT, V_INSERT, graphname));
+      PreparedStatement insert = large ? vLarge : vInsert;
+      insert.setLong   (1, vid);                      // VID (vertex id)
+      insert.setString (2, vl);                       // VL  (label)
+      insert.setString (3, k);                        // K   (property name)
+      if (t > 0)
+        insert.setLong (4, t);                        // T   (data type)
+      else
+        insert.setString (4, null);                   // T   (data type) set to NULL
+      if (large)
+        insert.setCharacterStream (5, ((LargeValue) value).reader(), ((LargeValue) value).length);  // V (large string value)
+      else
+        insert.setString (5, v);                      // V   (string value)
+      bindValue(insert, 6, value);                    // VN  (numeric value), VT (date value)
+      insert.addBatch();
+      if (large)
+        vLargeCount++;
+      else
+        vCount++;
+    }
+
+    public void edgeRow(long eid, long svid, long dvid, String el, String k, int t, String v, Object value)
+    throws Exception {
+      boolean large = value instanceof LargeValue;
+      if (large && eLarge == null)
+        eLarge = conn.prepareStatement(String.format(Locale.ROOT, E_INSERT, graphname));
+      PreparedStatement insert = large ? eLarge : eInsert;
+      insert.setLong   (1, eid);                      // EID  (vertex id)
+      insert.setLong   (2, svid);                     // SVID (source vertex id)
+      insert.setLong   (3, dvid);                     // DVID (destination vertex id)
+      insert.setString (4, el);                       // EL   (label)
+      insert.setString (5, k);                        // K    (property name)
+      if (t > 0)
+        insert.setLong (6, t);                        // T    (data type)
+      else
+        insert.setString (6, null);                   // T    (data type) set to NULL
+      if (large)
+        insert.setCharacterStream (7, ((LargeValue) value).reader(), ((LargeValue) value).length);  // V (large string value)
+      else
+        insert.setString (7, v);                      // V    (string value)
+      bindValue(insert, 8, value);                    // VN   (numeric value), VT (date value)
+      insert.addBatch();
+      if (large)
+        eLargeCount++;
+      else
+        eCount++;
+    }
+
+    // The large rows are only sent by flush(), once the writer has run its deletes (MERGE): it calls it
+    // as soon as an element leaves LARGE_BATCH of them waiting
+    public boolean flushNeeded() {
+      return vLargeCount + eLargeCount >= LARGE_BATCH;
+    }
+
+    void flushLarge()
+    throws Exception {
+      if (vLargeCount > 0)
+        vLarge.executeBatch();
+      if (eLargeCount > 0)
+        eLarge.executeBatch();
+      vLargeCount = 0;
+      eLargeCount = 0;
+    }
+
+    // Bind the numbers as NUMBER whatever their type, so that the binds of a batch keep the same types
+    static void bindValue(PreparedStatement insert, int p, Object value)
+    throws SQLException {
+      if (value instanceof Long)
+        insert.setLong (p, (Long) value);
+      else if (value instanceof Double)
+        insert.setDouble (p, (Double) value);
+      else
+        insert.setNull (p, Types.NUMERIC);
+      if (value instanceof OffsetDateTime)
+        insert.setObject (p+1, value);
+      else
+        insert.setNull (p+1, Types.TIMESTAMP_WITH_TIMEZONE);
+    }
+
+    public void flush()
+    throws Exception {
+      if (vCount > 0)
+        vInsert.executeBatch();
+      if (eCount > 0)
+        eInsert.executeBatch();
+      vCount = 0;
+      eCount = 0;
+      flushLarge();
+    }
+
+    public void close()
+    throws Exception {
+      vInsert.close();
+      eInsert.close();
+      if (vLarge != null)
+        vLarge.close();
+      if (eLarge != null)
+        eLarge.close();
+    }
+  }
+
+  // Array insert: buffers the rows column by column, and inserts each buffer with a single FORALL
+  // over collection binds. With directPath, the inserts use APPEND_VALUES: they write above the
+  // high water mark (without redo, since the tables are NOLOGGING), but lock the table until the
+  // next commit. Values too long for a VARCHAR2 collection (and large values), and dates, go through a
+  // row insert.
+  static class ArrayRows implements RowTarget {
+    static final String NUMBERS = "SYS.ODCINUMBERLIST";
+    static final String STRINGS = "SYS.ODCIVARCHAR2LIST";
+
+    OracleConnection conn;
+    CallableStatement vInsert;
+    CallableStatement eInsert;
+    Columns vColumns = new Columns(1, new String[] {STRINGS, STRINGS, NUMBERS, STRINGS, NUMBERS});
+    Columns eColumns = new Columns(3, new String[] {STRINGS, STRINGS, NUMBERS, STRINGS, NUMBERS});
+    StatementRows wideRows;
+    boolean hasWideRows = false;
+
+    ArrayRows(Connection conn, String graphname, boolean directPath)
+    throws Exception {
+      this.conn = conn.unwrap(OracleConnection.class);
+      String hint = directPath ? "/*+ APPEND_VALUES */ " : "";
+      vInsert = conn.prepareCall(forall(graphname + "VT$", new String[] {"vid","vl","k","t","v","vn"}, vColumns, hint));
+      eInsert = conn.prepareCall(forall(graphname + "GE$", new String[] {"eid","svid","dvid","el","k","t","v","vn"}, eColumns, hint));
+      wideRows = new StatementRows(conn, graphname);
+    }
+
+    // DECLARE p_vid SYS.ODCINUMBERLIST := :1; ... BEGIN FORALL i IN 1 .. p_vid.COUNT INSERT INTO ... VALUES (p_vid(i), ...); END;
+    static String forall(String table, String[] names, Columns columns, String hint) {
+      StringBuilder declare = new StringBuilder("DECLARE ");
+      StringBuilder values = new StringBuilder();
+      for (int c = 0; c < names.length; c++) {
+        String type = c < columns.ids.length ? NUMBERS : columns.types[c - columns.ids.length];
+        declare.append("p_" + names[c] + " " + type + " := :" + (c+1) + "; ");
+        values.append((c > 0 ? ", " : "") + "p_" + names[c] + "(i)");
+      }
+      return declare +
+        "BEGIN FORALL i IN 1 .. p_" + names[0] + ".COUNT " +
+        "INSERT " + hint + "INTO " + table + " (" + String.join(",", names) + ") VALUES (" + values + "); END;";
+    }
+
+    public void vertexRow(long vid, String vl, String k, int t, String v, Object value)
+    throws Exception {
+      if (!fitsVarchar2(v) || value instanceof OffsetDateTime || value instanceof LargeValue) {
+        wideRows.vertexRow(vid, vl, k, t, v, value);
+        hasWideRows = true;
+        return;
+      }
+      int r = vColumns.add();
+      vColumns.ids[0][r] = vid;
+      vColumns.set(r, vl, k, t, v, value);
+    }
+
+    public void edgeRow(long eid, long svid, long dvid, String el, String k, int t, String v, Object value)
+    throws Exception {
+      if (!fitsVarchar2(v) || value instanceof OffsetDateTime || value instanceof LargeValue) {
+        wideRows.edgeRow(eid, svid, dvid, el, k, t, v, value);
+        hasWideRows = true;
+        return;
+      }
+      int r = eColumns.add();
+      eColumns.ids[0][r] = eid;
+      eColumns.ids[1][r] = svid;
+      eColumns.ids[2][r] = dvid;
+      eColumns.set(r, el, k, t, v, value);
+    }
+
+    public boolean flushNeeded() {
+      return wideRows.flushNeeded();
+    }
+
+    // The row inserts go first: after a direct path insert, the table cannot be modified until commit
+    public void flush()
+    throws Exception {
+      if (hasWideRows)
+        wideRows.flush();
+      hasWideRows = false;
+      execute(vInsert, vColumns);
+      execute(eInsert, eColumns);
+    }
+
+    void execute(CallableStatement insert, Columns columns)
+    throws Exception {
+      if (columns.count == 0)
+        return;
+      int p = 1;
+      for (long[] ids : columns.ids)
+        insert.setArray(p++, conn.createOracleArray(NUMBERS, Arrays.copyOf(ids, columns.count)));
+      for (int c = 0; c < columns.values.length; c++)
+        insert.setArray(p++, conn.createOracleArray(columns.types[c], Arrays.copyOf(columns.values[c], columns.count)));
+      insert.execute();
+      columns.clear();
+    }
+
+    public void close()
+    throws Exception {
+      vInsert.close();
+      eInsert.close();
+      wideRows.close();
+    }
+
+    // Column buffers of one table: the ids as primitive longs, then label, key, type, value and numeric value
+    static class Columns {
+      int count = 0;
+      long[][] ids;
+      Object[][] values;
+      String[] types;
+
+      Columns(int numIds, String[] types) {
+        this.types = types;
+        ids = new long[numIds][1024];
+        values = new Object[types.length][1024];
+      }
+
+      // Return the index of a new row, growing the buffers as needed
+      int add() {
+        if (count == ids[0].length) {
+          for (int c = 0; c < ids.length; c++)
+            ids[c] = Arrays.copyOf(ids[c], count * 2);
+          for (int c = 0; c < values.length; c++)
+            values[c] = Arrays.copyOf(values[c], count * 2);
+        }
+        return count++;
+      }
+
+      void set(int r, String l, String k, int t, String v, Object vn) {
+        values[0][r] = l;
+        values[1][r] = k;
+        values[2][r] = t > 0 ? Integer.valueOf(t) : null;
+        values[3][r] = v;
+        values[4][r] = vn;
+      }
+
+      // Release the values, keep the buffers
+      void clear() {
+        for (Object[] column : values)
+          Arrays.fill(column, 0, count, null);
+        count = 0;
+      }
+    }
+  }
+
+  // Offline export: writes the VT$ and GE$ rows to delimited files, then generates the SQL*Loader
+  // control files and an external table script to load them. The records end with X'1E0A' (record
+  // separator + newline), so that the values may contain newlines. Values are enclosed in double
+  // quotes only when needed.
+  static class FileRows implements RowTarget {
+    static final String RECORD_END = "\u001E\n";
+    static final String DATE_MASK = "YYYY-MM-DD HH24:MI:SS.FF9 TZH:TZM";
+    static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSSSSSSSS xxx", Locale.ROOT);
+
+    File dir;
+    String graphname;
+    DataFiles vFiles;
+    DataFiles eFiles;
+
+    FileRows(String outputDir, String graphname)
+    throws Exception {
+      dir = new File(outputDir);
+      if (!dir.isDirectory() && !dir.mkdirs())
+        throw new IOException("Cannot create directory " + outputDir);
+      this.graphname = graphname.toUpperCase(Locale.ROOT);
+      vFiles = new DataFiles(graphname.toLowerCase(Locale.ROOT) + "_vt");
+      eFiles = new DataFiles(graphname.toLowerCase(Locale.ROOT) + "_ge");
+    }
+
+    public void vertexRow(long vid, String vl, String k, int t, String v, Object value)
+    throws Exception {
+      Writer w = vFiles.next();
+      w.write(Long.toString(vid));
+      w.write(',');
+      field(w, vl);
+      w.write(',');
+      field(w, k);
+      w.write(',');
+      if (t > 0)
+        w.write(Integer.toString(t));
+      w.write(',');
+      field(w, v, value);
+      w.write(',');
+      value(w, value);
+      w.write(RECORD_END);
+    }
+
+    public void edgeRow(long eid, long svid, long dvid, String el, String k, int t, String v, Object value)
+    throws Exception {
+      Writer w = eFiles.next();
+      w.write(Long.toString(eid));
+      w.write(',');
+      w.write(Long.toString(svid));
+      w.write(',');
+      w.write(Long.toString(dvid));
+      w.write(',');
+      field(w, el);
+      w.write(',');
+      field(w, k);
+      w.write(',');
+      if (t > 0)
+        w.write(Integer.toString(t));
+      w.write(',');
+      field(w, v, value);
+      w.write(',');
+      value(w, value);
+      w.write(RECORD_END);
+    }
+
+    // The files are buffered: nothing to send
+    public void flush() {
+    }
+
+    public void close()
+    throws Exception {
+      vFiles.close();
+      eFiles.close();
+      String vColumns = "VID, VL CHAR(3100), K CHAR(3100), T, V CHAR(15000), VN";
+      String eColumns = "EID, SVID, DVID, EL CHAR(3100), K CHAR(3100), T, V CHAR(15000), VN";
+      writeControlFile(graphname + "VT$", vFiles, vColumns + ", VT TIMESTAMP WITH TIME ZONE \"" + DATE_MASK + "\"");
+      writeControlFile(graphname + "GE$", eFiles, eColumns + ", VT TIMESTAMP WITH TIME ZONE \"" + DATE_MASK + "\"");
+      String vtField = ", VT CHAR(40) DATE_FORMAT TIMESTAMP WITH TIME ZONE MASK \"" + DATE_MASK + "\"";
+      File script = new File(dir, graphname.toLowerCase(Locale.ROOT) + "_load.sql");
+      // Sized like a load from the size of the data (the bytes read for the standard input)
+      long bytes = Math.max(inputBytes, metrics.getBytesRead());
+      int degree = degreeOfParallelism(null, bytes);
+      try (PrintWriter w = new PrintWriter(script, "UTF-8")) {
+        w.println("-- Load graph " + graphname + " from external tables");
+        w.println("-- The graph must exist: EXEC OPG_APIS.CREATE_PG('" + graphname + "', DOP=>" + degree + ", NUM_HASH_PTNS=>" + hashPartitions(degree, bytes) + ", OPTIONS=>'SKIP_INDEX=T')");
+        w.println("-- Directory GRAPHML_DIR must point to the data files:");
+        w.println("--   CREATE DIRECTORY GRAPHML_DIR AS '" + dir.getAbsolutePath() + "';");
+        if (compress) {
+          w.println("-- Directory GRAPHML_EXEC_DIR must contain the zcat program:");
+          w.println("--   CREATE DIRECTORY GRAPHML_EXEC_DIR AS '/bin';");
+        }
+        w.println();
+        writeExternalTable(w, graphname + "VT", vFiles, "VID NUMBER, VL NVARCHAR2(3100), K NVARCHAR2(3100), T NUMBER(10), V NVARCHAR2(15000), VN NUMBER, VT TIMESTAMP WITH TIME ZONE", vColumns + vtField);
+        writeExternalTable(w, graphname + "GE", eFiles, "EID NUMBER, SVID NUMBER, DVID NUMBER, EL NVARCHAR2(3100), K NVARCHAR2(3100), T NUMBER(10), V NVARCHAR2(15000), VN NUMBER, VT TIMESTAMP WITH TIME ZONE", eColumns + vtField);
+        w.println("ALTER SESSION ENABLE PARALLEL DML;");
+        w.println("INSERT /*+ APPEND PARALLEL */ INTO " + graphname + "VT$ (VID,VL,K,T,V,VN,VT) SELECT VID,VL,K,T,V,VN,VT FROM " + graphname + "VT_EXT;");
+        w.println("COMMIT;");
+        w.println("INSERT /*+ APPEND PARALLEL */ INTO " + graphname + "GE$ (EID,SVID,DVID,EL,K,T,V,VN,VT) SELECT EID,SVID,DVID,EL,K,T,V,VN,VT FROM " + graphname + "GE_EXT;");
+        w.println("COMMIT;");
+        w.println("DROP TABLE " + graphname + "VT_EXT;");
+        w.println("DROP TABLE " + graphname + "GE_EXT;");
+        if (buildTopology)
+          w.println("EXEC OPG_APIS.MIGRATE_PG_TO_CURRENT('" + graphname + "', DOP=>" + degree + ");");
+        else if (buildIndexes)
+          w.println("EXEC OPG_APIS.CREATE_PG('" + graphname + "', DOP=>" + degree + ", OPTIONS=>'SKIP_TABLE=T');");
+      }
+      System.out.println ("Wrote " + vFiles.names.size() + " vertex files and " + eFiles.names.size() + " edge files to " + dir);
+      System.out.println ("  Load with: sqlldr control=" + graphname.toLowerCase(Locale.ROOT) + "_vt.ctl and control=" + graphname.toLowerCase(Locale.ROOT) + "_ge.ctl");
+      System.out.println ("  or with external tables: " + script.getName());
+    }
+
+    void writeControlFile(String table, DataFiles files, String columns)
+    throws Exception {
+      File ctl = new File(dir, files.prefix + ".ctl");
+      try (PrintWriter w = new PrintWriter(ctl, "UTF-8")) {
+        if (compress)
+          w.println("-- The data files are compressed: uncompress them first, or use the external table script");
+        w.println("OPTIONS (DIRECT=TRUE)");
+        w.println("LOAD DATA");
+        w.println("CHARACTERSET AL32UTF8");
+        // The sizes of the CHAR fields are in characters, like those of the NVARCHAR2 columns
+        w.println("LENGTH SEMANTICS CHAR");
+        for (String name : files.names)
+          w.println("INFILE '" + (compress ? name.substring(0, name.length() - 3) : name) + "' \"str X'1E0A'\"");
+        w.println("APPEND");
+        w.println("INTO TABLE " + table);
+        w.println("FIELDS TERMINATED BY ',' OPTIONALLY ENCLOSED BY '\"'");
+        w.println("TRAILING NULLCOLS");
+        w.println("(" + columns + ")");
+      }
+    }
+
+    void writeExternalTable(PrintWriter w, String name, DataFiles files, String columns, String fields) {
+      w.println("CREATE TABLE " + name + "_EXT (" + columns + ")");
+      w.println("ORGANIZATION EXTERNAL (");
+      w.println("  TYPE ORACLE_LOADER");
+      w.println("  DEFAULT DIRECTORY GRAPHML_DIR");
+      w.println("  ACCESS PARAMETERS (");
+      w.println("    RECORDS DELIMITED BY 0X'1E0A' CHARACTERSET AL32UTF8");
+      w.println("    STRING SIZES ARE IN CHARACTERS");
+      if (compress)
+        w.println("    PREPROCESSOR GRAPHML_EXEC_DIR:'zcat'");
+      w.println("    FIELDS TERMINATED BY ',' OPTIONALLY ENCLOSED BY '\"'");
+      w.println("    MISSING FIELD VALUES ARE NULL");
+      w.println("    (" + fields + ")");
+      w.println("  )");
+      w.println("  LOCATION ('" + String.join("', '", files.names) + "')");
+      w.println(")");
+      w.println("PARALLEL REJECT LIMIT 0;");
+      w.println();
+    }
+
+    // Write the VN and VT fields: numbers as Java writes them (with a '.'), dates with DATE_MASK
+    static void value(Writer w, Object value)
+    throws IOException {
+      if (value instanceof Long || value instanceof Double)
+        w.write(value.toString());
+      w.write(',');
+      if (value instanceof OffsetDateTime)
+        w.write(DATE_FORMAT.format((OffsetDateTime) value));
+    }
+
+    // Write the V field: a large value is copied from its spill file, always enclosed in double quotes
+    static void field(Writer w, String v, Object value)
+    throws IOException {
+      if (!(value instanceof LargeValue)) {
+        field(w, v);
+        return;
+      }
+      w.write('"');
+      char[] chars = new char[8192];
+      try (Reader r = ((LargeValue) value).reader()) {
+        for (int n; (n = r.read(chars, 0, chars.length)) > 0; )
+          for (int c = 0; c < n; c++) {
+            if (chars[c] == '"')
+              w.write('"');
+            w.write(chars[c]);
+          }
+      }
+      w.write('"');
+    }
+
+    // Write a string field, enclosed in double quotes when it contains a delimiter or could be trimmed
+    static void field(Writer w, String s)
+    throws IOException {
+      if (s == null)
+        return;
+      boolean enclose = s.isEmpty() || Character.isWhitespace(s.charAt(0)) || Character.isWhitespace(s.charAt(s.length()-1));
+      for (int c = 0; c < s.length() && !enclose; c++) {
+        char ch = s.charAt(c);
+        enclose = ch == ',' || ch == '"' || ch == '\n' || ch == '\r' || ch == '\u001E';
+      }
+      if (enclose) {
+        w.write('"');
+        w.write(s.replace("\"", "\"\""));
+        w.write('"');
+      } else
+        w.write(s);
+    }
+
+    // Sequence of data files for one table, switching to a new file every splitRows rows
+    class DataFiles {
+      String prefix;
+      List<String> names = new ArrayList<>();
+      Writer writer;
+      long rows = 0;
+
+      DataFiles(String prefix) {
+        this.prefix = prefix;
+      }
+
+      // Return the writer for the next row
+      Writer next()
+      throws IOException {
+        if (writer == null || (splitRows > 0 && rows >= splitRows)) {
+          close();
+          String name = String.format(Locale.ROOT, "%s_%04d.dat", prefix, names.size() + 1) + (compress ? ".gz" : "");
+          OutputStream out = new FileOutputStream(new File(dir, name));
+          if (compress)
+            out = new java.util.zip.GZIPOutputStream(out, 1 << 16);
+          writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"), 1 << 20);
+          names.add(name);
+          rows = 0;
+        }
+        rows++;
+        return writer;
+      }
+
+      void close()
+      throws IOException {
+        if (writer != null)
+          writer.close();
+        writer = null;
+      }
+    }
+  }
+
+  // Restart point, saved at each commit into a properties file (by default next to the GraphML file):
+  // byte offset of the first item not committed, item counters and key declarations. The offset is
+  // found by counting the <node and <edge tags since the previous checkpoint (TagScanner), which only
+  // reads the bytes of the file again, without parsing them.
+  static class Checkpoint {
+    File file;
+    String filename;
+    FileChannel channel;
+    long size;
+    long offset;        // Offset of the item number 'items' (or of the end of the graph)
+    long items = 0;
+    long base;          // Items not counted by the writer (skipped, or loaded before the restart)
+    long vertices = 0;
+    long edges = 0;
+    String encoding = "UTF-8";
+    TagScanner scanner;
+
+    Checkpoint(String filename, long base)
+    throws IOException {
+      this.filename = filename;
+      this.base = base;
+      file = new File(checkpointFile != null ? checkpointFile : filename + ".checkpoint");
+      channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+      size = channel.size();
+      scanner = new TagScanner(channel, size);
+      offset = scanner.next(1);
+    }
+
+    // Read the checkpoint of a previous import of the file
+    static Checkpoint load(String filename)
+    throws IOException {
+      Checkpoint c = new Checkpoint(filename, 0);
+      Properties p = new Properties();
+      try (InputStream in = new FileInputStream(c.file)) {
+        p.load(in);
+      }
+      if (Long.parseLong(p.getProperty("size")) != c.size)
+        throw new IOException("File " + filename + " changed since checkpoint " + c.file);
+      c.offset = Long.parseLong(p.getProperty("offset"));
+      // The saved offset must still be the start of a vertex or an edge (or the end of the file)
+      if (c.offset < c.size && !c.scanner.isElement(c.offset))
+        throw new IOException("Checkpoint " + c.file + " does not point to a vertex or an edge of " + filename);
+      c.scanner.position = c.offset + 1;
+      c.items = Long.parseLong(p.getProperty("items"));
+      c.vertices = Long.parseLong(p.getProperty("vertices"));
+      c.edges = Long.parseLong(p.getProperty("edges"));
+      c.base = c.items - c.vertices - c.edges;
+      c.encoding = p.getProperty("encoding");
+      for (int k = 0; p.getProperty("key." + k + ".id") != null; k++)
+        declareKey(
+          p.getProperty("key." + k + ".id"),
+          p.getProperty("key." + k + ".for"),
+          p.getProperty("key." + k + ".name"),
+          Integer.parseInt(p.getProperty("key." + k + ".type"))
+        );
+      return c;
+    }
+
+    // The rest of the graph, from the checkpoint offset, wrapped into <graphml><graph> elements
+    InputStream resume()
+    throws IOException {
+      System.out.println ("Resuming after "+items+" items ("+vertices+" vertices, "+edges+" edges) at offset "+offset);
+      return new SequenceInputStream(
+        new ByteArrayInputStream(("<?xml version=\"1.0\" encoding=\"" + encoding + "\"?><graphml><graph>").getBytes(encoding)),
+        new BufferedInputStream(Channels.newInputStream(channel.position(offset)), 1 << 20)
+      );
+    }
+
+    // Save the checkpoint after committing the given number of vertices and edges
+    void save(long vCounter, long eCounter)
+    throws IOException {
+      long committed = base + vCounter + eCounter;
+      if (committed > items)
+        offset = scanner.next(committed - items);
+      items = committed;
+      vertices = vCounter;
+      edges = eCounter;
+      Properties p = new Properties();
+      p.setProperty("file", filename);
+      p.setProperty("size", Long.toString(size));
+      p.setProperty("offset", Long.toString(offset));
+      p.setProperty("items", Long.toString(items));
+      p.setProperty("vertices", Long.toString(vertices));
+      p.setProperty("edges", Long.toString(edges));
+      p.setProperty("encoding", encoding);
+      int k = 0;
+      Set<Key> keys = Collections.newSetFromMap(new IdentityHashMap<>());
+      keys.addAll(nodeKeys.values());
+      keys.addAll(edgeKeys.values());
+      for (Key key : keys) {
+        p.setProperty("key." + k + ".id", key.id);
+        if (key.scope != null)
+          p.setProperty("key." + k + ".for", key.scope);
+        if (key.attributeName != null)
+          p.setProperty("key." + k + ".name", key.attributeName);
+        p.setProperty("key." + k + ".type", Integer.toString(key.type));
+        k++;
+      }
+      // Replace the previous checkpoint in one step
+      File tmp = new File(file.getPath() + ".tmp");
+      try (OutputStream out = new FileOutputStream(tmp)) {
+        p.store(out, "GraphML import checkpoint");
+      }
+      Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // The import completed
+    void delete()
+    throws IOException {
+      channel.close();
+      try {
+        Files.deleteIfExists(file.toPath());
+      } catch (IOException e) {
+        System.out.println ("Cannot remove checkpoint "+file+" ("+e+")");
+      }
+    }
+  }
+
+  // Finds the <node and <edge tags of a file in order, as the parser sees them: the comments, CDATA
+  // sections and processing instructions are skipped (elsewhere, a '<' always starts a tag: it is
+  // escaped in the text and the attribute values). The scan goes on from the previous tag found, so
+  // each byte is only read once whatever the number of checkpoints.
+  static class TagScanner {
+    FileChannel channel;
+    long size;
+    long position = 0;
+    ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+    long bufferStart = 0;
+
+    TagScanner(FileChannel channel, long size) {
+      this.channel = channel;
+      this.size = size;
+      buffer.limit(0);
+    }
+
+    // Offset of the count-th <node or <edge tag from the position (the size of the file if none)
+    long next(long count)
+    throws IOException {
+      while (position < size) {
+        // Look for the next '<' within the buffer
+        at(position);
+        byte[] bytes = buffer.array();
+        int i = (int) (position - bufferStart);
+        while (i < buffer.limit() && bytes[i] != '<')
+          i++;
+        if (i == buffer.limit()) {
+          position = bufferStart + i;
+          continue;
+        }
+        long p = bufferStart + i;
+        position = p + 1;
+        if (startsWith(p + 1, "!--"))
+          position = skip(p + 4, "-->");
+        else if (startsWith(p + 1, "![CDATA["))
+          position = skip(p + 9, "]]>");
+        else if (startsWith(p + 1, "?"))
+          position = skip(p + 2, "?>");
+        else if (isElement(p) && --count == 0)
+          return p;
+      }
+      return size;
+    }
+
+    // Offset of the first <node or <edge tag at or after offset (the size of the file if none)
+    long after(long offset)
+    throws IOException {
+      long p;
+      do
+        p = next(1);
+      while (p < offset);
+      return p;
+    }
+
+    boolean isElement(long p)
+    throws IOException {
+      if (!startsWith(p, "<node") && !startsWith(p, "<edge"))
+        return false;
+      int next = at(p + 5);
+      return next == ' ' || next == '>' || next == '/' || next == '\t' || next == '\n' || next == '\r';
+    }
+
+    // Offset after the end marker
+    long skip(long p, String end)
+    throws IOException {
+      for (; p < size; p++)
+        if (startsWith(p, end))
+          return p + end.length();
+      return size;
+    }
+
+    boolean startsWith(long p, String s)
+    throws IOException {
+      for (int i = 0; i < s.length(); i++)
+        if (at(p + i) != s.charAt(i))
+          return false;
+      return true;
+    }
+
+    // Byte at offset p (-1 past the end), read through a buffer of the file
+    int at(long p)
+    throws IOException {
+      if (p >= size)
+        return -1;
+      if (p < bufferStart || p >= bufferStart + buffer.limit()) {
+        buffer.clear();
+        bufferStart = p;
+        int n = 0;
+        while (buffer.hasRemaining() && n >= 0)
+          n = channel.read(buffer, bufferStart + buffer.position());
+        buffer.flip();
+        if (buffer.limit() == 0)
+          throw new EOFException("File truncated at offset " + p);
+      }
+      return buffer.get((int) (p - bufferStart)) & 0xff;
+    }
+  }
+
+  // Writes vertices and edges through its own row target, and commits on its own connection
+  static class BatchWriter {
+    Connection conn;
+    RowTarget rows;
+    int batchsize;
+    String name;
+    long vCounter = 0;
+    long eCounter = 0;
+    int pendingRows = 0;
+    long uncommittedRows = 0;
+    Instant previous;
+    // Items at the start (when restarting) and at the previous commit, for the progress messages
+    long startItems = 0;
+    long previousItems = 0;
+    Checkpoint checkpoint;
+    // Merge: hash of the rows of the current element, old rows of the changed elements
+    RowHash hash;
+    Deletes deletes;
+    // Large values of the rows not flushed yet
+    List<LargeValue> values = new ArrayList<>();
+
+    BatchWriter(Connection conn, String graphname, int batchsize, String name)
+    throws Exception {
+      this.conn = conn;
+      this.batchsize = batchsize;
+      this.name = name;
+      rows = sink.rows(conn, graphname);
+      if (merge != null) {
+        hash = new RowHash();
+        deletes = new Deletes(conn, graphname);
+      }
+    }
+
+    void vertex(long vid, String vLabel, Props vProps)
+    throws Exception {
+      vCounter++;
+      long t = System.nanoTime();
+      int n = 0;
+      // Merge: only write new or changed vertices
+      if (merge != null) {
+        hash.reset();
+        writeVertex(hash,vid,vLabel,vProps);
+        int state = merge.vertices.check(vid, hash.value);
+        if (state == Merge.CHANGED)
+          deletes.vertex(vid);
+        if (state != Merge.UNCHANGED)
+          n = writeVertex(rows,vid,vLabel,vProps);
+      } else
+        n = writeVertex(rows,vid,vLabel,vProps);
+      metrics.rowBuild.since(t);
+      metrics.vertices.increment();
+      hold(vProps);
+      batched(n);
+    }
+
+    void edge(long eid, String eLabel, long svid, long dvid, Props eProps)
+    throws Exception {
+      eCounter++;
+      long t = System.nanoTime();
+      int n = 0;
+      // Merge: only write new or changed edges
+      if (merge != null) {
+        hash.reset();
+        writeEdge(hash,eid,eLabel,svid,dvid,eProps);
+        int state = merge.edges.check(eid, hash.value);
+        if (state == Merge.CHANGED)
+          deletes.edge(eid);
+        if (state != Merge.UNCHANGED)
+          n = writeEdge(rows,eid,eLabel,svid,dvid,eProps);
+      } else
+        n = writeEdge(rows,eid,eLabel,svid,dvid,eProps);
+      metrics.rowBuild.since(t);
+      metrics.edges.increment();
+      hold(eProps);
+      batched(n);
+    }
+
+    // Keep the large values until the rows are flushed
+    void hold(Props props) {
+      if (props.large != null)
+        for (int i = 0; i < props.size; i++)
+          if (props.large[i] != null)
+            values.add(props.large[i]);
+    }
+
+    // Commit or flush as requested, once all rows of an element are batched (so that the
+    // commits always fall between two items, and the item counters can be used to restart).
+    // A direct path insert must be committed before the next one. The rows with a large value are
+    // flushed every LARGE_BATCH of them, after the deletes of a MERGE like any flush.
+    void batched(int rows)
+    throws Exception {
+      pendingRows += rows;
+      uncommittedRows += rows;
+      metrics.rows.add(rows);
+      if ((batchsize > 0 && (vCounter+eCounter) % batchsize == 0) || (commitRows > 0 && uncommittedRows >= commitRows))
+        commitBatch (this);
+      else if ((flushRows > 0 && pendingRows >= flushRows) || this.rows.flushNeeded())
+        if (directPath)
+          commitBatch (this);
+        else
+          flushBatch (this);
+    }
+
+    // Final commit, without a checkpoint: the import is complete and its checkpoint is deleted
+    void finish()
+    throws Exception {
+      checkpoint = null;
+      commitBatch (this);
+      rows.close();
+    }
+  }
+
+  // MERGE action: the ids of the vertices and edges in the graph, with a hash of their rows, are read
+  // at the start. The elements of the file that are new are inserted; the changed ones (different hash)
+  // have their rows deleted, then inserted again; the unchanged ones are skipped. At the end, the
+  // elements of the graph that were not in the file are deleted.
+  static class Merge {
+    static final int NEW = 0;
+    static final int CHANGED = 1;
+    static final int UNCHANGED = 2;
+
+    IdIndex vertices;
+    IdIndex edges;
+
+    static Merge load(Connection conn, String graphname)
+    throws Exception {
+      System.out.println ("Reading the vertices and edges of graph "+graphname+" ...");
+      Instant startRead = Instant.now();
+      Merge m = new Merge();
+      m.vertices = read(conn, "SELECT vid, vl, k, t, v FROM " + graphname + "VT$", false);
+      m.edges = read(conn, "SELECT eid, el, k, t, v, svid, dvid FROM " + graphname + "GE$", true);
+      System.out.println ("..."+m.vertices.size+" vertices, "+m.edges.size+" edges read in " +
+        ((Instant.now().toEpochMilli()-startRead.toEpochMilli())/1000) + " sec ");
+      return m;
+    }
+
+    // Sum the hashes of the rows of each element (in whatever order the rows come). The hash of a row
+    // is computed here, as for the rows of the file: all the rows are fetched, with their values, so
+    // reading the graph moves about as many bytes from the database as there are in the tables.
+    static IdIndex read(Connection conn, String query, boolean isEdge)
+    throws Exception {
+      IdIndex index = new IdIndex();
+      RowHash hash = new RowHash();
+      try (Statement s = conn.createStatement()) {
+        s.setFetchSize(10000);
+        try (ResultSet r = s.executeQuery(query)) {
+          while (r.next()) {
+            long id = r.getLong(1);
+            int t = r.getInt(4);
+            hash.reset();
+            if (isEdge)
+              hash.edgeRow(id, r.getLong(6), r.getLong(7), r.getString(2), r.getString(3), t, r.getString(5), null);
+            else
+              hash.vertexRow(id, r.getString(2), r.getString(3), t, r.getString(5), null);
+            index.add(id, hash.value);
+          }
+        }
+      }
+      index.startChecks();
+      return index;
+    }
+
+    // Delete the rows of the elements that were not in the file
+    void deleteRemoved(Connection conn, String graphname)
+    throws Exception {
+      Deletes d = new Deletes(conn, graphname);
+      int pending = 0;
+      for (int slot = 0; slot < vertices.ids.length; slot++)
+        if (vertices.isRemoved(slot)) {
+          d.vertex(vertices.ids[slot]);
+          if (++pending % Math.max(flushRows, 1000) == 0)
+            d.flush();
+        }
+      for (int slot = 0; slot < edges.ids.length; slot++)
+        if (edges.isRemoved(slot)) {
+          d.edge(edges.ids[slot]);
+          if (++pending % Math.max(flushRows, 1000) == 0)
+            d.flush();
+        }
+      d.flush();
+      conn.commit();
+    }
+
+    void report() {
+      System.out.println ("Vertices: "+vertices.report());
+      System.out.println ("Edges: "+edges.report());
+    }
+  }
+
+  // Ids of the elements of the graph, with the hash of their rows: an open addressing hash table of
+  // primitive longs. During the merge, a bit per slot marks the elements found in the file.
+  static class IdIndex {
+    static final long EMPTY = Long.MIN_VALUE;
+    // Largest table (Java arrays are indexed by int), half full at most: 2^29 elements
+    static final int MAX_CAPACITY = 1 << 30;
+
+    long[] ids = new long[1 << 16];
+    long[] hashes = new long[1 << 16];
+    int size = 0;
+    AtomicLongArray found;
+    LongAdder inserted = new LongAdder();
+    LongAdder updated = new LongAdder();
+    LongAdder unchanged = new LongAdder();
+    long deleted = 0;
+
+    IdIndex() {
+      Arrays.fill(ids, EMPTY);
+    }
+
+    int slot(long id) {
+      long h = id * 0x9E3779B97F4A7C15L;
+      int mask = ids.length - 1;
+      int slot = (int) (h ^ (h >>> 32)) & mask;
+      while (ids[slot] != EMPTY && ids[slot] != id)
+        slot = (slot + 1) & mask;
+      return slot;
+    }
+
+    // Add the hash of a row to the hash of its element
+    void add(long id, long hash)
+    throws SQLException {
+      if (id == EMPTY)
+        throw new SQLException("Unsupported id " + id);
+      int slot = slot(id);
+      if (ids[slot] == EMPTY) {
+        ids[slot] = id;
+        if (++size > ids.length / 2) {
+          grow();
+          slot = slot(id);
+        }
+      }
+      hashes[slot] += hash;
+    }
+
+    void grow()
+    throws SQLException {
+      if (ids.length >= MAX_CAPACITY)
+        throw new SQLException("More than " + MAX_CAPACITY / 2 + " vertices or edges in the graph: too many to merge");
+      long[] oldIds = ids;
+      long[] oldHashes = hashes;
+      ids = new long[oldIds.length * 2];
+      hashes = new long[oldIds.length * 2];
+      Arrays.fill(ids, EMPTY);
+      for (int o = 0; o < oldIds.length; o++)
+        if (oldIds[o] != EMPTY) {
+          int slot = slot(oldIds[o]);
+          ids[slot] = oldIds[o];
+          hashes[slot] = oldHashes[o];
+        }
+    }
+
+    void startChecks() {
+      found = new AtomicLongArray((ids.length + 63) / 64);
+    }
+
+    // Compare an element of the file with the graph (from any writer thread)
+    int check(long id, long hash) {
+      int slot = slot(id);
+      if (ids[slot] == EMPTY) {
+        inserted.increment();
+        return Merge.NEW;
+      }
+      long bit = 1L << (slot & 63);
+      long bits;
+      do
+        bits = found.get(slot >>> 6);
+      while ((bits & bit) == 0 && !found.compareAndSet(slot >>> 6, bits, bits | bit));
+      if (hashes[slot] == hash) {
+        unchanged.increment();
+        return Merge.UNCHANGED;
+      }
+      updated.increment();
+      return Merge.CHANGED;
+    }
+
+    boolean isRemoved(int slot) {
+      if (ids[slot] == EMPTY || (found.get(slot >>> 6) & (1L << (slot & 63))) != 0)
+        return false;
+      deleted++;
+      return true;
+    }
+
+    String report() {
+      return inserted.sum()+" inserted, "+updated.sum()+" updated, "+unchanged.sum()+" unchanged, "+deleted+" deleted";
+    }
+  }
+
+  // Hash of the rows of an element, independent of their order: the sum of the hashes of the rows
+  static class RowHash implements RowTarget {
+    long value = 0;
+
+    void reset() {
+      value = 0;
+    }
+
+    public void vertexRow(long vid, String vl, String k, int t, String v, Object typed)
+    throws IOException {
+      value += row(vl, k, t, hash(v, typed), 0);
+    }
+
+    public void edgeRow(long eid, long svid, long dvid, String el, String k, int t, String v, Object typed)
+    throws IOException {
+      value += row(el, k, t, hash(v, typed), svid * 31 + dvid);
+    }
+
+    // Rejected values are reported when the rows are written
+    public void reject(boolean isEdge, long id, String k, int t, String v) {
+    }
+
+    static long row(String label, String k, int t, long v, long ends) {
+      long h = ends;
+      h = h * 0x100000001B3L + hash(label);
+      h = h * 0x100000001B3L + hash(k);
+      h = h * 0x100000001B3L + t;
+      h = h * 0x100000001B3L + v;
+      // Mix the bits, so that the sum of the row hashes stays spread
+      h ^= h >>> 33;
+      h *= 0xFF51AFD7ED558CCDL;
+      h ^= h >>> 33;
+      h *= 0xC4CEB9FE1A85EC53L;
+      h ^= h >>> 33;
+      return h;
+    }
+
+    // Hash of the value, read from the spill file for a large one
+    static long hash(String v, Object typed)
+    throws IOException {
+      return typed instanceof LargeValue ? ((LargeValue) typed).hash() : hash(v);
+    }
+
+    // 64 bit FNV-1a hash of a string (0 for null, or empty like in the database)
+    static long hash(String s) {
+      if (s == null || s.isEmpty())
+        return 0;
+      long h = 0xCBF29CE484222325L;
+      for (int i = 0; i < s.length(); i++) {
+        h ^= s.charAt(i);
+        h *= 0x100000001B3L;
+      }
+      return h;
+    }
+
+    public void flush() {
+    }
+
+    public void close() {
+    }
+  }
+
+  // Deletes the rows of vertices and edges, in JDBC batches
+  static class Deletes {
+    PreparedStatement vDelete;
+    PreparedStatement eDelete;
+    int vCount = 0;
+    int eCount = 0;
+
+    Deletes(Connection conn, String graphname)
+    throws Exception {
+      vDelete = conn.prepareStatement("DELETE FROM " + graphname + "VT$ WHERE vid = ?");
+      eDelete = conn.prepareStatement("DELETE FROM " + graphname + "GE$ WHERE eid = ?");
+    }
+
+    void vertex(long vid)
+    throws Exception {
+      vDelete.setLong(1, vid);
+      vDelete.addBatch();
+      vCount++;
+    }
+
+    void edge(long eid)
+    throws Exception {
+      eDelete.setLong(1, eid);
+      eDelete.addBatch();
+      eCount++;
+    }
+
+    void flush()
+    throws Exception {
+      if (vCount > 0)
+        vDelete.executeBatch();
+      if (eCount > 0)
+        eDelete.executeBatch();
+      vCount = 0;
+      eCount = 0;
+    }
+  }
+
+  // Property values left out because they do not match the type of their key (a number that does not
+  // parse, a date that is not in the ISO format ...). They are listed in <graph>_rejects.csv, created
+  // at the first one.
+  static class Rejects {
+    File file;
+    PrintWriter writer;
+    LongAdder count = new LongAdder();
+
+    synchronized void add(boolean isEdge, long id, String k, int t, String v)
+    throws IOException {
+      count.increment();
+      if (file == null)
+        return;
+      if (writer == null) {
+        writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        writer.println("element,id,key,type,value");
+      }
+      writer.println((isEdge ? "edge," : "vertex,") + id + "," + k + "," + t + ",\"" + v.replace("\"", "\"\"") + "\"");
+    }
+
+    synchronized void close() {
+      if (writer == null)
+        return;
+      writer.close();
+      writer = null;
+      System.out.println (count.sum()+" property values rejected, listed in "+file);
+    }
+  }
+
+  // Validation: GraphML does not require the vertices to come before the edges, so the edges whose
+  // vertices have not been seen yet are kept in a temporary file and checked again at the end. Those
+  // whose vertices never came are written to <graph>_dangling_edges.csv, and removed if asked. When
+  // appending, the graph may already hold the missing vertices: they are looked up in VT$ first.
+  static class Validator {
+    // Ids per lookup query (at most 1000 expressions in an Oracle IN list)
+    static final int LOOKUP_IDS = 1000;
+
+    IdSet vertices = new IdSet();
+    File pendingFile;
+    DataOutputStream pending;
+    long pendingCount = 0;
+    long dangling = 0;
+    String graphname;
+    File report;
+    boolean remove;
+    boolean lookup;
+
+    Validator(String graphname, boolean remove, boolean lookup)
+    throws IOException {
+      this.graphname = graphname;
+      this.remove = remove;
+      this.lookup = lookup;
+      report = new File(outputDir != null ? outputDir : ".", graphname.toLowerCase(Locale.ROOT) + "_dangling_edges.csv");
+      pendingFile = File.createTempFile("graphml-edges", ".tmp");
+      pendingFile.deleteOnExit();
+      pending = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(pendingFile), 1 << 16));
+    }
+
+    void vertex(long vid) {
+      vertices.add(vid);
+    }
+
+    void edge(long eid, long svid, long dvid)
+    throws IOException {
+      if (vertices.contains(svid) && vertices.contains(dvid))
+        return;
+      synchronized (this) {
+        pending.writeLong(eid);
+        pending.writeLong(svid);
+        pending.writeLong(dvid);
+        pendingCount++;
+      }
+    }
+
+    // All vertices are now known: report (and remove) the edges that still miss one
+    void finish(Connection conn)
+    throws Exception {
+      pending.close();
+      if (lookup && conn != null)
+        lookup(conn);
+      Deletes deletes = remove ? new Deletes(conn, graphname) : null;
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(pendingFile), 1 << 16));
+           PrintWriter w = new PrintWriter(report, "UTF-8")) {
+        w.println("eid,svid,dvid,missing");
+        for (long i = 0; i < pendingCount; i++) {
+          long eid = in.readLong();
+          long svid = in.readLong();
+          long dvid = in.readLong();
+          boolean source = vertices.contains(svid);
+          boolean target = vertices.contains(dvid);
+          if (source && target)
+            continue;
+          w.println(eid + "," + svid + "," + dvid + "," + (source ? "target" : target ? "source" : "both"));
+          dangling++;
+          if (deletes != null) {
+            deletes.edge(eid);
+            if (dangling % Math.max(flushRows, 1000) == 0)
+              deletes.flush();
+          }
+        }
+      }
+      pendingFile.delete();
+      if (deletes != null) {
+        deletes.flush();
+        conn.commit();
+      }
+      metrics.danglingEdges = dangling;
+      if (dangling == 0) {
+        report.delete();
+        System.out.println ("No dangling edges ("+pendingCount+" edges read before their vertices)");
+      } else
+        System.out.println (dangling+" dangling edges"+(remove ? " removed," : "")+" listed in "+report);
+    }
+
+    // Add to the known vertices those of the graph that the pending edges miss, so that edges to the
+    // vertices of an earlier load are neither reported nor removed
+    void lookup(Connection conn)
+    throws Exception {
+      long[] missing = new long[1024];
+      int count = 0;
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(pendingFile), 1 << 16))) {
+        for (long i = 0; i < pendingCount; i++) {
+          in.readLong();
+          for (int j = 0; j < 2; j++) {
+            long vid = in.readLong();
+            if (vertices.contains(vid))
+              continue;
+            if (count == missing.length)
+              missing = Arrays.copyOf(missing, count * 2);
+            missing[count++] = vid;
+          }
+        }
+      }
+      if (count == 0)
+        return;
+      Arrays.sort(missing, 0, count);
+      int distinct = 0;
+      for (int i = 0; i < count; i++)
+        if (distinct == 0 || missing[i] != missing[distinct - 1])
+          missing[distinct++] = missing[i];
+      StringBuilder sql = new StringBuilder("SELECT DISTINCT vid FROM " + graphname + "VT$ WHERE vid IN (?");
+      for (int i = 1; i < LOOKUP_IDS; i++)
+        sql.append(",?");
+      sql.append(")");
+      long found = 0;
+      try (PreparedStatement select = conn.prepareStatement(sql.toString())) {
+        for (int i = 0; i < distinct; i += LOOKUP_IDS) {
+          // The last query repeats its last id to fill the list
+          for (int j = 0; j < LOOKUP_IDS; j++)
+            select.setLong(j + 1, missing[Math.min(i + j, distinct - 1)]);
+          try (ResultSet rs = select.executeQuery()) {
+            while (rs.next()) {
+              vertices.add(rs.getLong(1));
+              found++;
+            }
+          }
+        }
+      }
+      System.out.println (found+" of "+distinct+" missing vertices found in the graph");
+    }
+  }
+
+  // Set of ids, in the manner of a roaring bitmap: the ids are split in pages of 65536, each one holding
+  // the low 16 bits of its ids as a sorted array while it has few of them (2 bytes per id), then as a
+  // bitmap (8 KB). Dense ids take about a bit each. Safe for concurrent use by parallel parsers.
+  static class IdSet {
+    static final long EMPTY = Long.MIN_VALUE;
+
+    // Table of the pages by high bits of the ids, replaced when it grows
+    static class Table {
+      final long[] keys;
+      final Page[] pages;
+
+      Table(int capacity) {
+        keys = new long[capacity];
+        pages = new Page[capacity];
+        Arrays.fill(keys, EMPTY);
+      }
+
+      int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        int mask = keys.length - 1;
+        int slot = (int) (h ^ (h >>> 32)) & mask;
+        while (keys[slot] != EMPTY && keys[slot] != key)
+          slot = (slot + 1) & mask;
+        return slot;
+      }
+    }
+
+    volatile Table table = new Table(1024);
+    int pageCount = 0;
+
+    void add(long id) {
+      page(id >> 16, true).add((int) id & 0xFFFF);
+    }
+
+    boolean contains(long id) {
+      Page page = page(id >> 16, false);
+      return page != null && page.contains((int) id & 0xFFFF);
+    }
+
+    // Pages are only added under the lock: a reader that does not see a page yet takes the lock
+    Page page(long key, boolean create) {
+      Table t = table;
+      Page page = t.pages[t.slot(key)];
+      if (page != null)
+        return page;
+      synchronized (this) {
+        t = table;
+        int slot = t.slot(key);
+        if (t.pages[slot] != null || !create)
+          return t.pages[slot];
+        if ((pageCount + 1) * 2 > t.keys.length) {
+          Table bigger = new Table(t.keys.length * 2);
+          for (int i = 0; i < t.keys.length; i++)
+            if (t.keys[i] != EMPTY) {
+              int s = bigger.slot(t.keys[i]);
+              bigger.keys[s] = t.keys[i];
+              bigger.pages[s] = t.pages[i];
+            }
+          table = t = bigger;
+          slot = t.slot(key);
+        }
+        page = new Page();
+        t.keys[slot] = key;
+        t.pages[slot] = page;
+        pageCount++;
+        return page;
+      }
+    }
+
+    static class Page {
+      static final int ARRAY_MAX = 4096;
+
+      char[] values;
+      int size;
+      long[] bits;
+
+      synchronized void add(int low) {
+        if (bits != null) {
+          bits[low >>> 6] |= 1L << low;
+          return;
+        }
+        if (values == null)
+          values = new char[4];
+        // Ids mostly come in order: check the end first
+        int at = size > 0 && values[size - 1] < low ? -size - 1 : Arrays.binarySearch(values, 0, size, (char) low);
+        if (at >= 0)
+          return;
+        at = -at - 1;
+        if (size == ARRAY_MAX) {
+          bits = new long[1024];
+          for (int i = 0; i < size; i++)
+            bits[values[i] >>> 6] |= 1L << values[i];
+          bits[low >>> 6] |= 1L << low;
+          values = null;
+          return;
+        }
+        if (size == values.length)
+          values = Arrays.copyOf(values, Math.min(size * 2, ARRAY_MAX));
+        System.arraycopy(values, at, values, at + 1, size - at);
+        values[at] = (char) low;
+        size++;
+      }
+
+      synchronized boolean contains(int low) {
+        if (bits != null)
+          return (bits[low >>> 6] & (1L << low)) != 0;
+        return values != null && Arrays.binarySearch(values, 0, size, (char) low) >= 0;
+      }
+    }
+  }
+
+  // Parallel load: the parser hands the elements over in chunks through a bounded queue (so it
+  // blocks when the writers fall behind), and each writer thread loads them over its own connection.
+  // The first writer failure stops the whole import.
+  static class Pipeline {
+    static final List<Element> END = new ArrayList<>();
+
+    BlockingQueue<List<Element>> queue;
+    List<Thread> threads = new ArrayList<>();
+    List<BatchWriter> writers = new ArrayList<>();
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    Pipeline(int numWriters, String jdbcUrl, String username, String password, String graphname, int batchsize)
+    throws Exception {
+      System.out.println ("Starting "+numWriters+" writers");
+      queue = new ArrayBlockingQueue<>(numWriters * 2);
+      try {
+        for (int w = 1; w <= numWriters; w++) {
+          Connection conn = DriverManager.getConnection(jdbcUrl, username, password);
+          conn.setAutoCommit(false);
+          writers.add(new BatchWriter(conn, graphname, batchsize, "writer " + w));
+        }
+      } catch (SQLException e) {
+        for (BatchWriter writer : writers)
+          writer.conn.close();
+        throw e;
+      }
+      for (BatchWriter writer : writers) {
+        Thread t = new Thread(() -> run(writer), writer.name);
+        threads.add(t);
+        t.start();
+      }
+    }
+
+    // Writer thread: load chunks until the end marker, or until any writer fails
+    void run(BatchWriter writer) {
+      try {
+        while (true) {
+          List<Element> elements = queue.take();
+          if (elements == END || failure.get() != null)
+            break;
+          for (Element e : elements)
+            if (e.isEdge)
+              writer.edge(e.id, e.label, e.svid, e.dvid, e.props);
+            else
+              writer.vertex(e.id, e.label, e.props);
+        }
+        if (failure.get() == null)
+          writer.finish();
+      } catch (Throwable t) {
+        failure.compareAndSet(null, t);
+      } finally {
+        try {
+          if (failure.get() != null)
+            writer.conn.rollback();
+          writer.conn.close();
+        } catch (SQLException e) {
+          // Already failing: keep the original error
+        }
+      }
+    }
+
+    // Blocks while the queue is full, but gives up as soon as a writer fails
+    void put(List<Element> elements)
+    throws Exception {
+      do
+        checkFailure();
+      while (!queue.offer(elements, 100, TimeUnit.MILLISECONDS));
+    }
+
+    void checkFailure()
+    throws Exception {
+      Throwable t = failure.get();
+      if (t != null)
+        throw new Exception("Writer failed, import stopped", t);
+    }
+
+    // Send the end markers, then wait for all writers to commit
+    void close()
+    throws Exception {
+      for (int w = 0; w < threads.size(); w++)
+        put(END);
+      for (Thread t : threads)
+        t.join();
+      checkFailure();
+    }
+
+    // Stop all writers after a parsing failure
+    void abort(Throwable cause)
+    throws InterruptedException {
+      failure.compareAndSet(null, cause);
+      for (Thread t : threads)
+        t.interrupt();
+      for (Thread t : threads)
+        t.join();
+    }
+  }
+
+  // Sharded import: the files are loaded at the same time by a pool of workers. Each worker has its own
+  // connection, kept from one file to the next, and loads a file at a time: it parses the file and writes
+  // it, committing every batchsize items. A file that fails is rolled back to its last commit, and the
+  // other files go on.
+  static class Shards {
+    BlockingQueue<String> files = new LinkedBlockingQueue<>();
+    List<Connection> connections = new ArrayList<>();
+    List<String> failed = Collections.synchronizedList(new ArrayList<>());
+    LongAdder vertices = new LongAdder();
+    LongAdder edges = new LongAdder();
+
+    Shards(int numWorkers, String jdbcUrl, String username, String password)
+    throws Exception {
+      System.out.println ("Starting "+numWorkers+" shard workers");
+      try {
+        for (int w = 1; w <= numWorkers; w++) {
+          Connection conn = DriverManager.getConnection(jdbcUrl, username, password);
+          conn.setAutoCommit(false);
+          connections.add(conn);
+        }
+      } catch (SQLException e) {
+        for (Connection conn : connections)
+          conn.close();
+        throw e;
+      }
+    }
+
+    // Load all files, return the number of vertices and edges loaded from the files that did not fail
+    long[] load(List<String> filenames, String graphname, int batchsize)
+    throws Exception {
+      files.addAll(filenames);
+      List<Thread> threads = new ArrayList<>();
+      for (int w = 0; w < connections.size(); w++) {
+        Connection conn = connections.get(w);
+        Thread t = new Thread(() -> run(conn, graphname, batchsize), "shard worker " + (w + 1));
+        threads.add(t);
+        t.start();
+      }
+      for (Thread t : threads)
+        t.join();
+      if (!failed.isEmpty()) {
+        System.out.println ("Failed shards (load them again with -a APPEND -s <committed items>):");
+        for (String shard : failed)
+          System.out.println ("  "+shard);
+      }
+      metrics.failedShards = failed;
+      return new long[] {vertices.sum(), edges.sum()};
+    }
+
+    // Worker thread: load files until there are none left
+    void run(Connection conn, String graphname, int batchsize) {
+      try {
+        for (String filename; (filename = files.poll()) != null; )
+          load(conn, filename, graphname, batchsize);
+      } finally {
+        try {
+          conn.close();
+        } catch (SQLException e) {
+          // All loads are committed or rolled back
+        }
+      }
+    }
+
+    void load(Connection conn, String filename, String graphname, int batchsize) {
+      String name = Paths.get(filename).getFileName().toString();
+      BatchWriter writer = null;
+      try {
+        System.out.println ("Processing file "+filename);
+        writer = new BatchWriter(conn, graphname, batchsize, name);
+        Dispatcher dispatcher = new Dispatcher(writer, null, 0, 0);
+        try (InputStream input = openInput(filename)) {
+          XMLStreamReader xmlReader = XMLInputFactory.newInstance().createXMLStreamReader(input);
+          parse(xmlReader, dispatcher);
+          xmlReader.close();
+        }
+        writer.finish();
+        vertices.add(writer.vCounter);
+        edges.add(writer.eCounter);
+        System.out.println (name+": loaded "+writer.vCounter+" vertices, "+writer.eCounter+" edges");
+      } catch (Throwable t) {
+        // Keep what was committed: the file can be loaded again from there
+        long committed = writer != null ? writer.previousItems : 0;
+        try {
+          conn.rollback();
+          if (writer != null)
+            writer.rows.close();
+        } catch (Exception e) {
+          // Already failing: keep the original error
+        }
+        System.out.println (name+": failed after "+committed+" committed items: "+t);
+        failed.add(filename+" ("+committed+" items committed)");
+      }
+    }
+  }
+
+  // Import metrics: exposed through JMX (graphml:type=Importer), as Prometheus text on
+  // http://localhost:<port>/metrics while the import runs, and written as a JSON summary at the end.
+  // The histograms show whether the time goes to parsing, to building the rows or to the database.
+  public interface MetricsMBean {
+    String getStatus();
+    long getVertices();
+    long getEdges();
+    long getRows();
+    long getBytesRead();
+    long getBatches();
+    long getCommits();
+    long getHeapUsed();
+    double getElapsedSeconds();
+    double getRowsPerSecond();
+    double getParseSeconds();
+    double getRowBuildSeconds();
+    double getExecuteBatchSeconds();
+    double getCommitSeconds();
+  }
+
+  public static class Metrics implements MetricsMBean {
+    String filename;
+    String graphname;
+    volatile String status = "running";
+    long startNanos = System.nanoTime();
+    volatile long endNanos = 0;
+    volatile long loadedNanos = 0;
+    volatile long finishNanos = 0;
+    volatile long danglingEdges = -1;
+    volatile List<String> failedShards = null;
+    volatile Profile profile = null;
+    Map<String, Double> steps = new LinkedHashMap<>();
+
+    LongAdder vertices = new LongAdder();
+    LongAdder edges = new LongAdder();
+    LongAdder rows = new LongAdder();
+    LongAdder bytesRead = new LongAdder();
+    LongAdder largeValues = new LongAdder();
+    AtomicLong heapMax = new AtomicLong();
+    Histogram parse = new Histogram("graphml_parse_seconds", "Time to parse a vertex or edge");
+    Histogram rowBuild = new Histogram("graphml_row_build_seconds", "Time to build the rows of a vertex or edge");
+    Histogram executeBatch = new Histogram("graphml_execute_batch_seconds", "Time to send a batch of rows to the database");
+    Histogram commit = new Histogram("graphml_commit_seconds", "Time to commit");
+
+    ObjectName name;
+    HttpServer server;
+
+    void start(String filename, String graphname)
+    throws Exception {
+      this.filename = filename;
+      this.graphname = graphname.toUpperCase(Locale.ROOT);
+      startNanos = System.nanoTime();
+      name = new ObjectName("graphml:type=Importer");
+      MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+      if (mbeans.isRegistered(name))
+        mbeans.unregisterMBean(name);
+      mbeans.registerMBean(this, name);
+    }
+
+    // Serve the metrics in the Prometheus text format (on the loopback interface only)
+    void serve(int port)
+    throws IOException {
+      server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+      server.createContext("/metrics", exchange -> {
+        byte[] body = prometheus().getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+          out.write(body);
+        }
+      });
+      server.start();
+      System.out.println ("Metrics on http://localhost:"+port+"/metrics");
+    }
+
+    void stop()
+    throws Exception {
+      endNanos = System.nanoTime();
+      if (status.equals("running"))
+        status = "failed";
+      heapUsed();
+      if (server != null)
+        server.stop(0);
+      if (name != null && ManagementFactory.getPlatformMBeanServer().isRegistered(name))
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+    }
+
+    public String getStatus()               { return status; }
+    public long getVertices()               { return vertices.sum(); }
+    public long getEdges()                  { return edges.sum(); }
+    public long getRows()                   { return rows.sum(); }
+    public long getBytesRead()              { return bytesRead.sum(); }
+    public long getBatches()                { return executeBatch.count.sum(); }
+    public long getCommits()                { return commit.count.sum(); }
+    public long getHeapUsed()               { return heapUsed(); }
+    public double getParseSeconds()         { return parse.seconds(); }
+    public double getRowBuildSeconds()      { return rowBuild.seconds(); }
+    public double getExecuteBatchSeconds()  { return executeBatch.seconds(); }
+    public double getCommitSeconds()        { return commit.seconds(); }
+
+    public double getElapsedSeconds() {
+      return ((endNanos != 0 ? endNanos : System.nanoTime()) - startNanos) / 1e9;
+    }
+
+    public double getRowsPerSecond() {
+      double elapsed = getElapsedSeconds();
+      return elapsed > 0 ? getRows() / elapsed : 0;
+    }
+
+    // Current heap use, also kept as the highest seen
+    long heapUsed() {
+      long used = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+      heapMax.accumulateAndGet(used, Math::max);
+      return used;
+    }
+
+    String prometheus() {
+      StringBuilder s = new StringBuilder();
+      metric(s, "graphml_vertices_total", "counter", "Vertices written", getVertices());
+      metric(s, "graphml_edges_total", "counter", "Edges written", getEdges());
+      metric(s, "graphml_rows_total", "counter", "Rows written to VT$ and GE$", getRows());
+      metric(s, "graphml_read_bytes_total", "counter", "Bytes read from the GraphML file", getBytesRead());
+      metric(s, "graphml_rows_per_second", "gauge", "Rows written per second since the start", getRowsPerSecond());
+      metric(s, "graphml_elapsed_seconds", "gauge", "Time since the start", getElapsedSeconds());
+      metric(s, "graphml_heap_used_bytes", "gauge", "Java heap in use", heapUsed());
+      parse.prometheus(s);
+      rowBuild.prometheus(s);
+      executeBatch.prometheus(s);
+      commit.prometheus(s);
+      return s.toString();
+    }
+
+    static void metric(StringBuilder s, String name, String type, String help, Object value) {
+      s.append("# HELP ").append(name).append(' ').append(help).append('\n');
+      s.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+      s.append(name).append(' ').append(value).append('\n');
+    }
+
+    String json() {
+      StringBuilder s = new StringBuilder("{\n");
+      s.append("  \"file\": ").append(quote(filename)).append(",\n");
+      s.append("  \"graph\": ").append(quote(graphname)).append(",\n");
+      s.append("  \"status\": ").append(quote(status)).append(",\n");
+      s.append("  \"elapsedSeconds\": ").append(getElapsedSeconds()).append(",\n");
+      s.append("  \"loadSeconds\": ").append(loadedNanos != 0 ? (loadedNanos - startNanos) / 1e9 : getElapsedSeconds()).append(",\n");
+      s.append("  \"finishSeconds\": ").append(finishNanos / 1e9).append(",\n");
+      s.append("  \"steps\": {");
+      String separator = "";
+      for (Map.Entry<String, Double> step : steps.entrySet()) {
+        s.append(separator).append(quote(step.getKey())).append(": ").append(step.getValue());
+        separator = ", ";
+      }
+      s.append("},\n");
+      s.append("  \"vertices\": ").append(getVertices()).append(",\n");
+      s.append("  \"edges\": ").append(getEdges()).append(",\n");
+      s.append("  \"rows\": ").append(getRows()).append(",\n");
+      s.append("  \"rejectedValues\": ").append(rejects.count.sum()).append(",\n");
+      s.append("  \"largeValues\": ").append(largeValues.sum()).append(",\n");
+      if (profile != null)
+        s.append("  \"profile\": ").append(profile.json()).append(",\n");
+      if (danglingEdges >= 0)
+        s.append("  \"danglingEdges\": ").append(danglingEdges).append(",\n");
+      if (failedShards != null) {
+        s.append("  \"failedShards\": [");
+        separator = "";
+        for (String shard : failedShards) {
+          s.append(separator).append(quote(shard));
+          separator = ", ";
+        }
+        s.append("],\n");
+      }
+      s.append("  \"bytesRead\": ").append(getBytesRead()).append(",\n");
+      s.append("  \"rowsPerSecond\": ").append(getRowsPerSecond()).append(",\n");
+      s.append("  \"heapUsedMaxBytes\": ").append(heapMax.get()).append(",\n");
+      s.append("  \"parse\": ").append(parse.json()).append(",\n");
+      s.append("  \"rowBuild\": ").append(rowBuild.json()).append(",\n");
+      s.append("  \"executeBatch\": ").append(executeBatch.json()).append(",\n");
+      s.append("  \"commit\": ").append(commit.json()).append("\n");
+      s.append("}\n");
+      return s.toString();
+    }
+
+    static String quote(String v) {
+      if (v == null)
+        return "null";
+      StringBuilder s = new StringBuilder("\"");
+      for (char c : v.toCharArray())
+        if (c == '"' || c == '\\')
+          s.append('\\').append(c);
+        else if (c < ' ')
+          s.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+        else
+          s.append(c);
+      return s.append('"').toString();
+    }
+
+    void writeSummary(String file)
+    throws IOException {
+      if (file.equals("-"))
+        System.out.print (json());
+      else
+        Files.write(Paths.get(file), json().getBytes("UTF-8"));
+    }
+  }
+
+  // Distribution of durations, in buckets of 1, 2.5 and 5 times the powers of ten from 1 us to 500 s
+  static class Histogram {
+    static final long[] BOUNDS = bounds();
+
+    String name;
+    String help;
+    AtomicLongArray buckets = new AtomicLongArray(BOUNDS.length + 1);
+    LongAdder count = new LongAdder();
+    LongAdder sum = new LongAdder();
+    AtomicLong max = new AtomicLong();
+
+    Histogram(String name, String help) {
+      this.name = name;
+      this.help = help;
+    }
+
+    static long[] bounds() {
+      long[] bounds = new long[27];
+      long unit = 1000;
+      for (int b = 0; b < bounds.length; b += 3, unit *= 10) {
+        bounds[b] = unit;
+        bounds[b+1] = unit * 5 / 2;
+        bounds[b+2] = unit * 5;
+      }
+      return bounds;
+    }
+
+    void record(long nanos) {
+      int b = 0;
+      while (b < BOUNDS.length && nanos > BOUNDS[b])
+        b++;
+      buckets.incrementAndGet(b);
+      count.increment();
+      sum.add(nanos);
+      if (nanos > max.get())
+        max.accumulateAndGet(nanos, Math::max);
+    }
+
+    // Record the time since start (from System.nanoTime())
+    void since(long start) {
+      record(System.nanoTime() - start);
+    }
+
+    double seconds() {
+      return sum.sum() / 1e9;
+    }
+
+    // Upper bound of the bucket reached by the given fraction of the values
+    double quantile(double q) {
+      long target = (long) Math.ceil(q * count.sum());
+      long seen = 0;
+      for (int b = 0; b < BOUNDS.length; b++) {
+        seen += buckets.get(b);
+        if (seen >= target)
+          return Math.min(BOUNDS[b], max.get()) / 1e9;
+      }
+      return max.get() / 1e9;
+    }
+
+    void prometheus(StringBuilder s) {
+      s.append("# HELP ").append(name).append(' ').append(help).append('\n');
+      s.append("# TYPE ").append(name).append(" histogram\n");
+      long cumulated = 0;
+      for (int b = 0; b <= BOUNDS.length; b++) {
+        cumulated += buckets.get(b);
+        String le = b < BOUNDS.length ? Double.toString(BOUNDS[b] / 1e9) : "+Inf";
+        s.append(name).append("_bucket{le=\"").append(le).append("\"} ").append(cumulated).append('\n');
+      }
+      s.append(name).append("_sum ").append(seconds()).append('\n');
+      s.append(name).append("_count ").append(count.sum()).append('\n');
+    }
+
+    String json() {
+      return "{\"count\": " + count.sum() + ", \"seconds\": " + seconds() +
+        ", \"p50\": " + quantile(0.5) + ", \"p99\": " + quantile(0.99) + ", \"max\": " + max.get() / 1e9 + "}";
+    }
+  }
+
+  // Counts the bytes read from the file
+  static class CountingInputStream extends FilterInputStream {
+
+    CountingInputStream(InputStream in) {
+      super(in);
+    }
+
+    public int read()
+    throws IOException {
+      int b = super.read();
+      if (b >= 0)
+        metrics.bytesRead.increment();
+      return b;
+    }
+
+    public int read(byte[] b, int off, int len)
+    throws IOException {
+      int n = super.read(b, off, len);
+      if (n > 0)
+        metrics.bytesRead.add(n);
+      return n;
+    }
+  }
+
+  // Reads a stream on its own thread, in blocks of 1 MB handed over to the reader through a queue
+  static class ReaderThreadInputStream extends InputStream {
+    static final int BLOCKS = 4;
+
+    InputStream in;
+    BlockingQueue<ByteBuffer> filled = new ArrayBlockingQueue<>(BLOCKS + 1);
+    BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(BLOCKS);
+    volatile IOException failure;
+    volatile boolean closed = false;
+    Thread thread;
+    ByteBuffer block = ByteBuffer.allocate(0);
+    boolean eof = false;
+
+    ReaderThreadInputStream(InputStream in) {
+      this.in = in;
+      for (int b = 0; b < BLOCKS; b++)
+        free.add(ByteBuffer.allocate(1 << 20));
+      thread = new Thread(this::run, "input reader");
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    // Fill the free blocks until the end of the stream, marked by an empty block, or until closed
+    void run() {
+      try {
+        while (!closed) {
+          ByteBuffer b = free.take();
+          byte[] data = b.array();
+          int n = 0;
+          for (int r; !closed && n < data.length && (r = in.read(data, n, data.length - n)) > 0; )
+            n += r;
+          b.clear().limit(n);
+          filled.put(b);
+          if (n == 0)
+            break;
+        }
+      } catch (IOException e) {
+        if (!closed) {
+          failure = e;
+          filled.offer(ByteBuffer.allocate(0));
+        }
+      } catch (InterruptedException e) {
+        // Closed
+      }
+    }
+
+    // Move to the next block, return false at the end of the stream
+    boolean next()
+    throws IOException {
+      if (eof)
+        return false;
+      try {
+        if (block.capacity() > 0)
+          free.put(block);
+        block = filled.take();
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException();
+      }
+      if (failure != null)
+        throw failure;
+      eof = !block.hasRemaining();
+      return !eof;
+    }
+
+    public int read()
+    throws IOException {
+      if (!block.hasRemaining() && !next())
+        return -1;
+      return block.get() & 0xff;
+    }
+
+    public int read(byte[] b, int off, int len)
+    throws IOException {
+      if (len == 0)
+        return 0;
+      if (!block.hasRemaining() && !next())
+        return -1;
+      len = Math.min(len, block.remaining());
+      block.get(b, off, len);
+      return len;
+    }
+
+    // Stop the reader thread before closing the stream (after an early stop, the thread may be in the
+    // middle of a read): it ends once its current read returns
+    public void close()
+    throws IOException {
+      closed = true;
+      thread.interrupt();
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      } finally {
+        in.close();
+      }
+    }
+  }
+}
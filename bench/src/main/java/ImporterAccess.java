@@ -0,0 +1,118 @@
+import java.io.*;
+import java.sql.*;
+import java.time.*;
+import java.util.*;
+import javax.xml.stream.*;
+
+// Entry points into the importer for the benchmarks. The importer classes are package-private in
+// the unnamed package, which JMH benchmarks cannot use: the benchmarks call these methods through
+// reflection (see graphml.bench.Importer), once per phase.
+public class ImporterAccess {
+
+  // Parse phase: parse the file, return the number of vertices, edges and properties read
+  public static long parse(String filename, boolean neo4j)
+  throws Exception {
+    GraphMLImporter.isNeo4J = neo4j;
+    Counter counter = new Counter();
+    try (InputStream in = new FileInputStream(filename)) {
+      XMLStreamReader xmlReader = XMLInputFactory.newInstance().createXMLStreamReader(in);
+      GraphMLImporter.parse(xmlReader, counter);
+      xmlReader.close();
+    }
+    return counter.count;
+  }
+
+  // Parse the file into elements, as handed over to the parallel writers
+  public static List<?> elements(String filename, boolean neo4j)
+  throws Exception {
+    GraphMLImporter.isNeo4J = neo4j;
+    Collector collector = new Collector();
+    try (InputStream in = new FileInputStream(filename)) {
+      XMLStreamReader xmlReader = XMLInputFactory.newInstance().createXMLStreamReader(in);
+      GraphMLImporter.parse(xmlReader, collector);
+      xmlReader.close();
+    }
+    return collector.elements;
+  }
+
+  // Row assembly phase: build the VT$ and GE$ rows of the elements, return a checksum of the rows
+  public static long buildRows(List<?> elements)
+  throws Exception {
+    Rows rows = new Rows();
+    for (Object o : elements) {
+      GraphMLImporter.Element e = (GraphMLImporter.Element) o;
+      if (e.isEdge)
+        GraphMLImporter.writeEdge(rows, e.id, e.label, e.svid, e.dvid, e.props);
+      else
+        GraphMLImporter.writeVertex(rows, e.id, e.label, e.props);
+    }
+    return rows.checksum;
+  }
+
+  // Write phase: load the elements into tables <graphname>VT$ and <graphname>GE$ with a single
+  // writer (through the JDBC sink), committing at the end. Returns the number of elements written.
+  public static long write(Connection conn, String graphname, List<?> elements, int flushRows)
+  throws Exception {
+    GraphMLImporter.sink = new GraphMLImporter.JdbcSink();
+    GraphMLImporter.flushRows = flushRows;
+    GraphMLImporter.commitRows = 0;
+    GraphMLImporter.start = Instant.now();
+    GraphMLImporter.BatchWriter writer = new GraphMLImporter.BatchWriter(conn, graphname, 0, null);
+    for (Object o : elements) {
+      GraphMLImporter.Element e = (GraphMLImporter.Element) o;
+      if (e.isEdge)
+        writer.edge(e.id, e.label, e.svid, e.dvid, e.props);
+      else
+        writer.vertex(e.id, e.label, e.props);
+    }
+    writer.finish();
+    return writer.vCounter + writer.eCounter;
+  }
+
+  static class Counter implements GraphMLImporter.ElementHandler {
+    long count = 0;
+
+    public boolean vertex(long vid, String vLabel, GraphMLImporter.Props vProps) {
+      count += 1 + vProps.size();
+      return true;
+    }
+
+    public boolean edge(long eid, String eLabel, long svid, long dvid, GraphMLImporter.Props eProps) {
+      count += 1 + eProps.size();
+      return true;
+    }
+  }
+
+  static class Collector implements GraphMLImporter.ElementHandler {
+    List<GraphMLImporter.Element> elements = new ArrayList<>();
+
+    public boolean vertex(long vid, String vLabel, GraphMLImporter.Props vProps) {
+      elements.add(new GraphMLImporter.Element(false, vid, vLabel, 0, 0, vProps.copy()));
+      return true;
+    }
+
+    public boolean edge(long eid, String eLabel, long svid, long dvid, GraphMLImporter.Props eProps) {
+      elements.add(new GraphMLImporter.Element(true, eid, eLabel, svid, dvid, eProps.copy()));
+      return true;
+    }
+  }
+
+  // Consumes the rows, so that building them cannot be optimized away
+  static class Rows implements GraphMLImporter.RowTarget {
+    long checksum = 0;
+
+    public void vertexRow(long vid, String vl, String k, int t, String v, Object value) {
+      checksum = 31 * checksum + vid + vl.hashCode() + t + (k != null ? k.hashCode() : 0) + (v != null ? v.length() : 0) + (value != null ? 1 : 0);
+    }
+
+    public void edgeRow(long eid, long svid, long dvid, String el, String k, int t, String v, Object value) {
+      checksum = 31 * checksum + eid + svid + dvid + el.hashCode() + t + (k != null ? k.hashCode() : 0) + (v != null ? v.length() : 0) + (value != null ? 1 : 0);
+    }
+
+    public void flush() {
+    }
+
+    public void close() {
+    }
+  }
+}
@@ -0,0 +1,29 @@
+package graphml.bench;
+
+import java.io.*;
+import java.nio.file.*;
+import org.openjdk.jmh.annotations.*;
+
+// Common setup of the benchmarks: generates the GraphML file described by the parameters of the
+// benchmark in a temporary directory, and removes it at the end of the trial.
+@State(Scope.Benchmark)
+public abstract class GraphBenchmark {
+
+  File file;
+
+  void generate(long vertices, long edges, int properties, String format)
+  throws IOException {
+    file = Files.createTempFile("bench", ".graphml").toFile();
+    new GraphGenerator(vertices, edges, properties, neo4j(format)).write(file);
+  }
+
+  static boolean neo4j(String format) {
+    return format.toUpperCase().equals("NEO4J");
+  }
+
+  @TearDown(Level.Trial)
+  public void deleteFile() {
+    if (file != null)
+      file.delete();
+  }
+}
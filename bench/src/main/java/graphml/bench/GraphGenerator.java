@@ -0,0 +1,132 @@
+package graphml.bench;
+
+import java.io.*;
+import java.util.*;
+
+// Writes a synthetic GraphML file: vertices with random labels, edges between random vertices, and a
+// number of properties per vertex and per edge (a string, then alternately int, double and string).
+// The file is the same for the same parameters.
+//
+//   java -cp benchmarks.jar graphml.bench.GraphGenerator -v 1000000 -e 2000000 -p 4 -t NEO4J graph.graphml
+public class GraphGenerator {
+
+  static final String[] VERTEX_LABELS = {"person", "company", "city", "product", "account"};
+  static final String[] EDGE_LABELS = {"knows", "works_at", "lives_in", "bought", "owns"};
+  static final String[] TYPES = {"int", "double", "string"};
+
+  long vertices = 100000;
+  long edges = 200000;
+  int properties = 2;
+  boolean neo4j = false;
+  long seed = 1;
+
+  public static void main(String[] args)
+  throws Exception {
+    GraphGenerator generator = new GraphGenerator();
+    String filename = null;
+    int i = 0;
+    while (i < args.length) {
+      switch (args[i]) {
+        case "-v" : case "--vertices":   generator.vertices   = Long.parseLong(args[++i]); break;
+        case "-e" : case "--edges":      generator.edges      = Long.parseLong(args[++i]); break;
+        case "-p" : case "--properties": generator.properties = Integer.parseInt(args[++i]); break;
+        case "-t" : case "--format":     generator.neo4j      = args[++i].toUpperCase().equals("NEO4J"); break;
+        case "-s" : case "--seed":       generator.seed       = Long.parseLong(args[++i]); break;
+        default:                         filename = args[i];
+      }
+      i++;
+    }
+    if (filename == null) {
+      System.out.println ("Parameters: [-v vertices] [-e edges] [-p properties] [-t NEO4J|TINKERPOP] [-s seed] <filename>");
+      System.exit(0);
+    }
+    generator.write(new File(filename));
+  }
+
+  public GraphGenerator() {
+  }
+
+  public GraphGenerator(long vertices, long edges, int properties, boolean neo4j) {
+    this.vertices = vertices;
+    this.edges = edges;
+    this.properties = properties;
+    this.neo4j = neo4j;
+  }
+
+  public void write(File file)
+  throws IOException {
+    Random random = new Random(seed);
+    try (Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"), 1 << 20)) {
+      w.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+      w.write("<graphml xmlns=\"http://graphml.graphdrawing.org/xmlns\">\n");
+
+      // Key declarations
+      String vLabelKey = neo4j ? "labels" : "labelV";
+      String eLabelKey = neo4j ? "label" : "labelE";
+      key(w, vLabelKey, "node", "string");
+      key(w, eLabelKey, "edge", "string");
+      for (int p = 0; p < properties; p++) {
+        key(w, "v" + p, "node", type(p));
+        key(w, "e" + p, "edge", type(p));
+      }
+      w.write("<graph id=\"G\" edgedefault=\"directed\">\n");
+
+      // Vertices
+      String v = neo4j ? "n" : "";
+      for (long vid = 0; vid < vertices; vid++) {
+        String label = VERTEX_LABELS[random.nextInt(VERTEX_LABELS.length)];
+        if (neo4j)
+          label = ":" + Character.toUpperCase(label.charAt(0)) + label.substring(1);
+        w.write("<node id=\"" + v + vid + "\"");
+        if (neo4j)
+          w.write(" labels=\"" + label + "\"");
+        w.write("><data key=\"" + vLabelKey + "\">" + label + "</data>");
+        for (int p = 0; p < properties; p++)
+          data(w, "v" + p, value(random, p, vid));
+        w.write("</node>\n");
+      }
+
+      // Edges
+      String e = neo4j ? "e" : "";
+      for (long eid = 0; eid < edges; eid++) {
+        String label = EDGE_LABELS[random.nextInt(EDGE_LABELS.length)];
+        if (neo4j)
+          label = label.toUpperCase();
+        long svid = (long) (random.nextDouble() * vertices);
+        long dvid = (long) (random.nextDouble() * vertices);
+        w.write("<edge id=\"" + e + eid + "\" source=\"" + v + svid + "\" target=\"" + v + dvid + "\"");
+        if (neo4j)
+          w.write(" label=\"" + label + "\"");
+        w.write("><data key=\"" + eLabelKey + "\">" + label + "</data>");
+        for (int p = 0; p < properties; p++)
+          data(w, "e" + p, value(random, p, eid));
+        w.write("</edge>\n");
+      }
+
+      w.write("</graph>\n</graphml>\n");
+    }
+  }
+
+  // The first property is a string, then int, double, string ...
+  static String type(int p) {
+    return p == 0 ? "string" : TYPES[(p - 1) % TYPES.length];
+  }
+
+  static String value(Random random, int p, long id) {
+    switch (type(p)) {
+      case "int":    return Integer.toString(random.nextInt(100000));
+      case "double": return Double.toString(Math.round(random.nextDouble() * 100000) / 100.0);
+      default:       return p == 0 ? "name " + id : "value " + random.nextInt(1000) + " & more";
+    }
+  }
+
+  static void key(Writer w, String id, String scope, String type)
+  throws IOException {
+    w.write("<key id=\"" + id + "\" for=\"" + scope + "\" attr.name=\"" + id + "\" attr.type=\"" + type + "\"/>\n");
+  }
+
+  static void data(Writer w, String key, String value)
+  throws IOException {
+    w.write("<data key=\"" + key + "\">" + value.replace("&", "&amp;").replace("<", "&lt;") + "</data>");
+  }
+}
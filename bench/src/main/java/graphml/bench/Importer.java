@@ -0,0 +1,62 @@
+package graphml.bench;
+
+import java.lang.reflect.*;
+import java.sql.*;
+import java.util.*;
+
+// Calls the importer entry points of ImporterAccess, which lives in the unnamed package
+public class Importer {
+
+  static final Class<?> ACCESS = load();
+  static final Method PARSE = method("parse", String.class, boolean.class);
+  static final Method ELEMENTS = method("elements", String.class, boolean.class);
+  static final Method BUILD_ROWS = method("buildRows", List.class);
+  static final Method WRITE = method("write", Connection.class, String.class, List.class, int.class);
+
+  static Class<?> load() {
+    try {
+      return Class.forName("ImporterAccess");
+    } catch (ClassNotFoundException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  static Method method(String name, Class<?>... parameters) {
+    try {
+      return ACCESS.getMethod(name, parameters);
+    } catch (NoSuchMethodException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  static Object call(Method method, Object... args)
+  throws Exception {
+    try {
+      return method.invoke(null, args);
+    } catch (InvocationTargetException e) {
+      if (e.getCause() instanceof Exception)
+        throw (Exception) e.getCause();
+      throw e;
+    }
+  }
+
+  public static long parse(String filename, boolean neo4j)
+  throws Exception {
+    return (Long) call(PARSE, filename, neo4j);
+  }
+
+  public static List<?> elements(String filename, boolean neo4j)
+  throws Exception {
+    return (List<?>) call(ELEMENTS, filename, neo4j);
+  }
+
+  public static long buildRows(List<?> elements)
+  throws Exception {
+    return (Long) call(BUILD_ROWS, elements);
+  }
+
+  public static long write(Connection conn, String graphname, List<?> elements, int flushRows)
+  throws Exception {
+    return (Long) call(WRITE, conn, graphname, elements, flushRows);
+  }
+}
@@ -0,0 +1,37 @@
+package graphml.bench;
+
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+// Parse phase: StAX parsing of the file and assembly of the vertices and edges, without building rows
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBenchmark extends GraphBenchmark {
+
+  @Param({"100000"})
+  long vertices;
+
+  @Param({"200000"})
+  long edges;
+
+  @Param({"2", "8"})
+  int properties;
+
+  @Param({"TINKERPOP", "NEO4J"})
+  String format;
+
+  @Setup(Level.Trial)
+  public void setup()
+  throws Exception {
+    generate(vertices, edges, properties, format);
+  }
+
+  @Benchmark
+  public long parse()
+  throws Exception {
+    return Importer.parse(file.getPath(), neo4j(format));
+  }
+}
@@ -0,0 +1,41 @@
+package graphml.bench;
+
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+// Row assembly phase: VT$ and GE$ rows built from the parsed vertices and edges (writeVertex, writeEdge)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RowBenchmark extends GraphBenchmark {
+
+  @Param({"100000"})
+  long vertices;
+
+  @Param({"200000"})
+  long edges;
+
+  @Param({"2", "8"})
+  int properties;
+
+  @Param({"TINKERPOP"})
+  String format;
+
+  List<?> elements;
+
+  @Setup(Level.Trial)
+  public void setup()
+  throws Exception {
+    generate(vertices, edges, properties, format);
+    elements = Importer.elements(file.getPath(), neo4j(format));
+  }
+
+  @Benchmark
+  public long buildRows()
+  throws Exception {
+    return Importer.buildRows(elements);
+  }
+}
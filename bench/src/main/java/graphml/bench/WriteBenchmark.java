@@ -0,0 +1,73 @@
+package graphml.bench;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+// JDBC write phase: the rows of the parsed vertices and edges inserted in batches with a single writer
+// (BatchWriter), into VT$ and GE$ shaped tables of an in-memory H2 database, committed at the end.
+// This measures the importer's side of the writes (binding, batching), not the Oracle database.
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class WriteBenchmark extends GraphBenchmark {
+
+  static final String GRAPH = "BENCH";
+
+  @Param({"20000"})
+  long vertices;
+
+  @Param({"40000"})
+  long edges;
+
+  @Param({"2"})
+  int properties;
+
+  @Param({"TINKERPOP"})
+  String format;
+
+  @Param({"1000", "10000"})
+  int flushRows;
+
+  List<?> elements;
+  Connection conn;
+
+  @Setup(Level.Trial)
+  public void setup()
+  throws Exception {
+    generate(vertices, edges, properties, format);
+    elements = Importer.elements(file.getPath(), neo4j(format));
+    conn = DriverManager.getConnection("jdbc:h2:mem:bench;MODE=Oracle", "bench", "");
+    conn.setAutoCommit(false);
+    try (Statement s = conn.createStatement()) {
+      s.execute("CREATE TABLE " + GRAPH + "VT$ (VID NUMBER, VL NVARCHAR2(3100), K NVARCHAR2(3100), T INTEGER, V NVARCHAR2(15000), VN NUMBER, VT TIMESTAMP WITH TIME ZONE)");
+      s.execute("CREATE TABLE " + GRAPH + "GE$ (EID NUMBER, SVID NUMBER, DVID NUMBER, EL NVARCHAR2(3100), K NVARCHAR2(3100), T INTEGER, V NVARCHAR2(15000), VN NUMBER, VT TIMESTAMP WITH TIME ZONE)");
+    }
+  }
+
+  // Each load starts from empty tables
+  @Setup(Level.Invocation)
+  public void truncate()
+  throws Exception {
+    try (Statement s = conn.createStatement()) {
+      s.execute("TRUNCATE TABLE " + GRAPH + "VT$");
+      s.execute("TRUNCATE TABLE " + GRAPH + "GE$");
+    }
+    conn.commit();
+  }
+
+  @Benchmark
+  public long write()
+  throws Exception {
+    return Importer.write(conn, GRAPH, elements, flushRows);
+  }
+
+  @TearDown(Level.Trial)
+  public void close()
+  throws Exception {
+    conn.close();
+  }
+}
@@ -0,0 +1,136 @@
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Instant;
+import java.util.*;
+import javax.xml.stream.*;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+// Checkpoint offsets: the <node and <edge tags found without parsing, and the restart from them
+public class CheckpointTest {
+
+  static final String GRAPH =
+    "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+    "<graphml xmlns=\"http://graphml.graphdrawing.org/xmlns\">\n" +
+    "  <key id=\"labelV\" for=\"node\" attr.name=\"labelV\" attr.type=\"string\" />\n" +
+    "  <key id=\"labelE\" for=\"edge\" attr.name=\"labelE\" attr.type=\"string\" />\n" +
+    "  <key id=\"text\" for=\"node\" attr.name=\"text\" attr.type=\"string\" />\n" +
+    "  <!-- <node id=\"98\"/> in a comment -->\n" +
+    "  <graph id=\"G\" edgedefault=\"directed\">\n" +
+    "    <node id=\"1\"><data key=\"labelV\">p</data></node>\n" +
+    "    <?keep <node id=\"97\"/> ?>\n" +
+    "    <node id=\"2\"><data key=\"text\"><![CDATA[<edge id=\"99\" source=\"1\" target=\"2\">]]></data></node>\n" +
+    "    <node id=\"3\"><data key=\"text\">&lt;node id=\"96\"&gt; escaped, <!-- <edge id=\"95\"> --></data></node>\n" +
+    "    <nodes/>\n" +
+    "    <edge id=\"4\" source=\"1\" target=\"2\"><data key=\"labelE\">e</data></edge>\n" +
+    "    <edge\n      id=\"5\" source=\"2\" target=\"3\"/>\n" +
+    "  </graph>\n" +
+    "</graphml>\n";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  File file;
+
+  @Before
+  public void setUp()
+  throws Exception {
+    file = folder.newFile("graph.graphml");
+    Files.write(file.toPath(), GRAPH.getBytes(StandardCharsets.UTF_8));
+    GraphMLImporter.checkpointFile = new File(folder.getRoot(), "graph.checkpoint").getPath();
+    GraphMLImporter.nodeKeys.clear();
+    GraphMLImporter.edgeKeys.clear();
+  }
+
+  @After
+  public void tearDown() {
+    GraphMLImporter.checkpointFile = null;
+    GraphMLImporter.sink = new GraphMLImporter.OracleSink();
+  }
+
+  // The tags in comments, CDATA sections and processing instructions are not elements
+  @Test
+  public void scannerSkipsCommentsAndCdata()
+  throws Exception {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      GraphMLImporter.TagScanner scanner = new GraphMLImporter.TagScanner(channel, channel.size());
+      assertEquals(GRAPH.indexOf("<node id=\"1\""), scanner.next(1));
+      assertEquals(GRAPH.indexOf("<node id=\"3\""), scanner.next(2));
+      assertEquals(GRAPH.indexOf("<edge id=\"4\""), scanner.next(1));
+      assertEquals(GRAPH.indexOf("<edge\n"), scanner.next(1));
+      assertEquals(channel.size(), scanner.next(1));
+    }
+  }
+
+  // A restart reads the items after the last commit, and only those
+  @Test
+  public void resumeAfterCommit()
+  throws Exception {
+    GraphMLImporter.Checkpoint checkpoint = new GraphMLImporter.Checkpoint(file.getPath(), 0);
+    checkpoint.save(2, 0);
+    checkpoint.save(3, 1);
+    checkpoint.channel.close();
+
+    GraphMLImporter.Checkpoint restart = GraphMLImporter.Checkpoint.load(file.getPath());
+    assertEquals(GRAPH.indexOf("<edge\n"), restart.offset);
+    assertEquals(4, restart.items);
+    assertEquals(Arrays.asList(5L), ids(restart.resume()));
+    restart.delete();
+    assertFalse(new File(GraphMLImporter.checkpointFile).exists());
+  }
+
+  // The final commit saves no checkpoint: it would scan the rest of the file for nothing
+  @Test
+  public void finalCommitSavesNothing()
+  throws Exception {
+    GraphMLImporter.sink = new GraphMLImporter.CountSink();
+    GraphMLImporter.metrics = new GraphMLImporter.Metrics();
+    GraphMLImporter.start = Instant.now();
+    GraphMLImporter.BatchWriter writer = new GraphMLImporter.BatchWriter(null, "G", 0, null);
+    GraphMLImporter.Checkpoint checkpoint = new GraphMLImporter.Checkpoint(file.getPath(), 0);
+    writer.checkpoint = checkpoint;
+    writer.vCounter = 3;
+    writer.finish();
+    assertEquals(0, checkpoint.items);
+    assertFalse(new File(GraphMLImporter.checkpointFile).exists());
+    checkpoint.delete();
+  }
+
+  // A checkpoint whose offset is not the start of an element is refused
+  @Test(expected = IOException.class)
+  public void refuseMisplacedOffset()
+  throws Exception {
+    GraphMLImporter.Checkpoint checkpoint = new GraphMLImporter.Checkpoint(file.getPath(), 0);
+    checkpoint.save(1, 0);
+    checkpoint.channel.close();
+    File saved = new File(GraphMLImporter.checkpointFile);
+    String content = new String(Files.readAllBytes(saved.toPath()), StandardCharsets.ISO_8859_1);
+    content = content.replace("offset=" + checkpoint.offset, "offset=" + (checkpoint.offset + 1));
+    Files.write(saved.toPath(), content.getBytes(StandardCharsets.ISO_8859_1));
+    GraphMLImporter.Checkpoint.load(file.getPath());
+  }
+
+  // Ids of the vertices and edges parsed from the stream
+  static List<Long> ids(InputStream input)
+  throws Exception {
+    List<Long> ids = new ArrayList<>();
+    XMLStreamReader xmlReader = XMLInputFactory.newInstance().createXMLStreamReader(input);
+    GraphMLImporter.parse(xmlReader, new GraphMLImporter.ElementHandler() {
+      public boolean vertex(long vid, String vLabel, GraphMLImporter.Props vProps) {
+        ids.add(vid);
+        return true;
+      }
+
+      public boolean edge(long eid, String eLabel, long svid, long dvid, GraphMLImporter.Props eProps) {
+        ids.add(eid);
+        return true;
+      }
+    });
+    input.close();
+    return ids;
+  }
+}
@@ -0,0 +1,53 @@
+import static org.junit.Assert.*;
+
+import java.sql.SQLException;
+import org.junit.*;
+
+// Index of the elements of the graph for a MERGE: the hashes of their rows, and the elements found in the file
+public class IdIndexTest {
+
+  // The hash of an element is the sum of the hashes of its rows, across the growths of the table
+  @Test
+  public void sumsTheRowsOfEachElement()
+  throws Exception {
+    GraphMLImporter.IdIndex index = new GraphMLImporter.IdIndex();
+    int n = 200000;
+    for (long id = -n; id < n; id++) {
+      index.add(id * 7, id);
+      index.add(id * 7, 1);
+    }
+    assertEquals(2 * n, index.size);
+    index.startChecks();
+    for (long id = -n; id < n; id++)
+      assertEquals(GraphMLImporter.Merge.UNCHANGED, index.check(id * 7, id + 1));
+    assertEquals(2 * n, index.unchanged.sum());
+  }
+
+  @Test
+  public void newChangedAndRemoved()
+  throws Exception {
+    GraphMLImporter.IdIndex index = new GraphMLImporter.IdIndex();
+    index.add(1, 10);
+    index.add(2, 20);
+    index.add(3, 30);
+    index.startChecks();
+    assertEquals(GraphMLImporter.Merge.UNCHANGED, index.check(1, 10));
+    assertEquals(GraphMLImporter.Merge.CHANGED, index.check(2, 21));
+    assertEquals(GraphMLImporter.Merge.NEW, index.check(4, 40));
+    int removed = 0;
+    for (int slot = 0; slot < index.ids.length; slot++)
+      if (index.isRemoved(slot)) {
+        assertEquals(3, index.ids[slot]);
+        removed++;
+      }
+    assertEquals(1, removed);
+    assertEquals("1 inserted, 1 updated, 1 unchanged, 1 deleted", index.report());
+  }
+
+  // Long.MIN_VALUE marks the empty slots
+  @Test(expected = SQLException.class)
+  public void refuseTheEmptyMarker()
+  throws Exception {
+    new GraphMLImporter.IdIndex().add(Long.MIN_VALUE, 1);
+  }
+}
@@ -0,0 +1,78 @@
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import org.junit.*;
+
+// Set of the vertex ids seen by the validation: pages of sorted arrays or bitmaps, filled by the writers
+public class IdSetTest {
+
+  @Test
+  public void sparseAndDenseIds() {
+    GraphMLImporter.IdSet set = new GraphMLImporter.IdSet();
+    // Dense: the pages become bitmaps. Sparse: the pages stay small arrays, added out of order.
+    for (long id = 0; id < 100000; id++)
+      set.add(id);
+    for (long id = 1L << 40; id > 0; id -= 1L << 28)
+      set.add(id * 3);
+    set.add(-5);
+    set.add(Long.MAX_VALUE);
+    for (long id = 0; id < 100000; id++)
+      assertTrue(set.contains(id));
+    for (long id = 1L << 40; id > 0; id -= 1L << 28) {
+      assertTrue(set.contains(id * 3));
+      assertFalse(set.contains(id * 3 + 1));
+    }
+    assertTrue(set.contains(-5));
+    assertFalse(set.contains(-4));
+    assertTrue(set.contains(Long.MAX_VALUE));
+    assertFalse(set.contains(100000));
+  }
+
+  // A page moves from an array to a bitmap past ARRAY_MAX ids, and keeps them all
+  @Test
+  public void pageBecomesBitmap() {
+    GraphMLImporter.IdSet set = new GraphMLImporter.IdSet();
+    int n = GraphMLImporter.IdSet.Page.ARRAY_MAX + 1;
+    for (int i = n - 1; i >= 0; i--)
+      set.add(i * 13 % 65536);
+    for (int i = 0; i < n; i++)
+      assertTrue(set.contains(i * 13 % 65536));
+    assertFalse(set.contains(n * 13 % 65536));
+  }
+
+  // Several writers add ids while others read them: every id added is found
+  @Test
+  public void concurrentAddsAndReads()
+  throws Exception {
+    GraphMLImporter.IdSet set = new GraphMLImporter.IdSet();
+    int threads = 8;
+    int perThread = 200000;
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<Integer>> results = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        long first = t;
+        results.add(pool.submit(() -> {
+          int missing = 0;
+          // Interleaved ids spread over many pages, so that the table grows while the others read
+          for (long i = 0; i < perThread; i++) {
+            long id = (i * threads + first) * 1009;
+            set.add(id);
+            if (!set.contains(id))
+              missing++;
+          }
+          return missing;
+        }));
+      }
+      for (Future<Integer> result : results)
+        assertEquals(0, (int) result.get());
+    } finally {
+      pool.shutdown();
+    }
+    for (long i = 0; i < (long) perThread * threads; i++) {
+      assertTrue(set.contains(i * 1009));
+      assertFalse(set.contains(i * 1009 + 1));
+    }
+  }
+}
@@ -0,0 +1,109 @@
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.sql.*;
+import java.util.*;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+// MERGE action through the JDBC sink, into an embedded H2 database
+public class MergeTest {
+
+  static final String GRAPH = "G";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  Connection conn;
+
+  @Before
+  public void setUp()
+  throws Exception {
+    conn = DriverManager.getConnection("jdbc:h2:mem:merge;MODE=Oracle", "sa", "");
+    conn.setAutoCommit(false);
+    GraphMLImporter.sink = new GraphMLImporter.JdbcSink();
+    GraphMLImporter.rejects = new GraphMLImporter.Rejects();
+    GraphMLImporter.metrics = new GraphMLImporter.Metrics();
+    GraphMLImporter.nodeKeys.clear();
+    GraphMLImporter.edgeKeys.clear();
+  }
+
+  @After
+  public void tearDown()
+  throws Exception {
+    GraphMLImporter.merge = null;
+    GraphMLImporter.Spill.deleteAll();
+    conn.close();
+  }
+
+  // The rows of the changed vertices are deleted before their new rows, large values included
+  @Test
+  public void mergeChangedLargeValues()
+  throws Exception {
+    load("CREATE", graph('a', 12));
+    load("MERGE", graph('b', 12));
+    try (Statement s = conn.createStatement();
+         ResultSet r = s.executeQuery("SELECT vid, v FROM " + GRAPH + "VT$ WHERE k = 'DOC' ORDER BY vid")) {
+      int n = 0;
+      while (r.next()) {
+        assertEquals(++n, r.getLong(1));
+        assertEquals(doc('b', n), r.getString(2));
+      }
+      assertEquals(12, n);
+    }
+  }
+
+  // Merging the same file again changes nothing: the hash of a streamed value is the hash of the value
+  @Test
+  public void mergeUnchangedLargeValues()
+  throws Exception {
+    File file = graph('a', 12);
+    load("CREATE", file);
+    load("MERGE", file);
+    assertEquals(12, GraphMLImporter.merge.vertices.unchanged.sum());
+    assertEquals(24, count());
+  }
+
+  void load(String action, File file)
+  throws Exception {
+    GraphMLImporter.merge = null;
+    GraphMLImporter.sink.open(conn, GRAPH, action);
+    GraphMLImporter.processFile(Arrays.asList(file.getPath()), conn, GRAPH, 0, 0, 0, null, null);
+  }
+
+  long count()
+  throws SQLException {
+    try (Statement s = conn.createStatement();
+         ResultSet r = s.executeQuery("SELECT COUNT(*) FROM " + GRAPH + "VT$")) {
+      r.next();
+      return r.getLong(1);
+    }
+  }
+
+  // Vertices 1 to n, each with a name and a 5000 character doc (streamed from the spill file)
+  File graph(char version, int n)
+  throws IOException {
+    File file = folder.newFile("graph-" + version + ".graphml");
+    try (PrintWriter w = new PrintWriter(file, "UTF-8")) {
+      w.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+      w.println("<graphml xmlns=\"http://graphml.graphdrawing.org/xmlns\">");
+      w.println("  <key id=\"labelV\" for=\"node\" attr.name=\"labelV\" attr.type=\"string\" />");
+      w.println("  <key id=\"name\" for=\"node\" attr.name=\"name\" attr.type=\"string\" />");
+      w.println("  <key id=\"doc\" for=\"node\" attr.name=\"doc\" attr.type=\"string\" />");
+      w.println("  <graph id=\"G\" edgedefault=\"directed\">");
+      for (int i = 1; i <= n; i++)
+        w.println("    <node id=\"" + i + "\"><data key=\"labelV\">doc</data><data key=\"name\">v" + i + "</data>" +
+          "<data key=\"doc\">" + doc(version, i) + "</data></node>");
+      w.println("  </graph>");
+      w.println("</graphml>");
+    }
+    return file;
+  }
+
+  static String doc(char version, int i) {
+    StringBuilder s = new StringBuilder().append(version).append(i).append(' ');
+    while (s.length() < 5000)
+      s.append((char) ('a' + s.length() % 26));
+    return s.toString();
+  }
+}
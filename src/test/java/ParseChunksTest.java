@@ -0,0 +1,59 @@
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+// Parallel parsing: the chunk boundaries are tags seen by the parser, not the text of comments or CDATA
+public class ParseChunksTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Before
+  public void setUp() {
+    GraphMLImporter.sink = new GraphMLImporter.CountSink();
+    GraphMLImporter.rejects = new GraphMLImporter.Rejects();
+    GraphMLImporter.metrics = new GraphMLImporter.Metrics();
+    GraphMLImporter.nodeKeys.clear();
+    GraphMLImporter.edgeKeys.clear();
+  }
+
+  @After
+  public void tearDown() {
+    GraphMLImporter.sink = new GraphMLImporter.OracleSink();
+    GraphMLImporter.parseThreads = 0;
+    GraphMLImporter.chunkSize = 64 << 20;
+  }
+
+  // Chunks much smaller than the values: most boundaries would fall inside a CDATA section or a comment
+  @Test
+  public void chunksSkipCdataAndComments()
+  throws Exception {
+    File file = folder.newFile("graph.graphml");
+    try (PrintWriter w = new PrintWriter(file, "UTF-8")) {
+      w.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+      w.println("<graphml xmlns=\"http://graphml.graphdrawing.org/xmlns\">");
+      w.println("  <key id=\"text\" for=\"node\" attr.name=\"text\" attr.type=\"string\" />");
+      w.println("  <key id=\"labelE\" for=\"edge\" attr.name=\"labelE\" attr.type=\"string\" />");
+      w.println("  <graph id=\"G\" edgedefault=\"directed\">");
+      for (int i = 1; i <= 200; i++) {
+        StringBuilder text = new StringBuilder();
+        for (int j = 0; j < 20; j++)
+          text.append("<![CDATA[ <node id=\"x\"> <edge id=\"y\"> ]]>");
+        w.println("    <!-- <node id=\"c" + i + "\"/> -->");
+        w.println("    <node id=\"" + i + "\"><data key=\"text\">" + text + "</data></node>");
+        if (i > 1)
+          w.println("    <edge id=\"" + i + "\" source=\"" + (i - 1) + "\" target=\"" + i + "\"><data key=\"labelE\">e</data></edge>");
+      }
+      w.println("  </graph>");
+      w.println("</graphml>");
+    }
+    GraphMLImporter.parseThreads = 4;
+    GraphMLImporter.chunkSize = 100;
+    GraphMLImporter.processFile(Arrays.asList(file.getPath()), null, "G", 0, 0, 0, null, null);
+    assertEquals(200, GraphMLImporter.metrics.vertices.sum());
+    assertEquals(199, GraphMLImporter.metrics.edges.sum());
+  }
+}
@@ -0,0 +1,37 @@
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+// Ids of the vertices and edges, read from a position of the id attribute (after the n or e of Neo4j)
+public class ParseIdTest {
+
+  @Test
+  public void sameAsParseLong() {
+    String[] ids = {"0", "7", "-7", "123456789012345678", "-123456789012345678", "999999999999999999",
+      "9223372036854775807", "-9223372036854775808", "0042"};
+    for (String id : ids) {
+      assertEquals(id, Long.parseLong(id), GraphMLImporter.parseId(id, 0));
+      assertEquals(id, Long.parseLong(id), GraphMLImporter.parseId("n" + id, 1));
+    }
+  }
+
+  @Test(expected = NumberFormatException.class)
+  public void refuseOverflow() {
+    GraphMLImporter.parseId("9223372036854775808", 0);
+  }
+
+  @Test(expected = NumberFormatException.class)
+  public void refuseNonDigits() {
+    GraphMLImporter.parseId("n12a", 1);
+  }
+
+  @Test(expected = NumberFormatException.class)
+  public void refuseEmpty() {
+    GraphMLImporter.parseId("e", 1);
+  }
+
+  @Test(expected = NumberFormatException.class)
+  public void refuseSignOnly() {
+    GraphMLImporter.parseId("-", 0);
+  }
+}
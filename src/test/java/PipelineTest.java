@@ -0,0 +1,61 @@
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.sql.*;
+import java.util.*;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+// Parallel writers, on their own connections to an embedded H2 database
+public class PipelineTest {
+
+  static final String URL = "jdbc:h2:mem:pipeline";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  // Keeps the in-memory database, with its tables, while the writers connect
+  Connection conn;
+
+  @Before
+  public void setUp()
+  throws Exception {
+    conn = DriverManager.getConnection(URL, "sa", "");
+    conn.setAutoCommit(false);
+    GraphMLImporter.sink = new GraphMLImporter.JdbcSink();
+    GraphMLImporter.sink.open(conn, "G", "CREATE");
+    GraphMLImporter.rejects = new GraphMLImporter.Rejects();
+    GraphMLImporter.metrics = new GraphMLImporter.Metrics();
+    GraphMLImporter.nodeKeys.clear();
+    GraphMLImporter.edgeKeys.clear();
+  }
+
+  @After
+  public void tearDown()
+  throws Exception {
+    GraphMLImporter.sink = new GraphMLImporter.OracleSink();
+    conn.close();
+  }
+
+  // A writer failure found by the final close stops the other writers as well
+  @Test
+  public void failureAtCloseStopsAllWriters()
+  throws Exception {
+    File file = folder.newFile("empty.graphml");
+    try (PrintWriter w = new PrintWriter(file, "UTF-8")) {
+      w.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+      w.println("<graphml xmlns=\"http://graphml.graphdrawing.org/xmlns\"><graph id=\"G\" edgedefault=\"directed\"/></graphml>");
+    }
+    GraphMLImporter.Pipeline pipeline = new GraphMLImporter.Pipeline(3, URL, "sa", "", "G", 0);
+    Exception failure = new Exception("writer failed");
+    pipeline.failure.set(failure);
+    try {
+      GraphMLImporter.processFile(Arrays.asList(file.getPath()), conn, "G", 0, 0, 0, pipeline, null);
+      fail("The writer failure was not reported");
+    } catch (Exception e) {
+      assertSame(failure, e.getCause());
+    }
+    for (Thread t : pipeline.threads)
+      assertFalse(t.getName() + " still running", t.isAlive());
+  }
+}
@@ -0,0 +1,51 @@
+import static org.junit.Assert.*;
+
+import java.io.*;
+import org.junit.*;
+
+// Input read on its own thread (compressed files): closed while the thread is still reading
+public class ReaderThreadTest {
+
+  // An endless input with slow reads (a block each), that records a close in the middle of a read
+  static class SlowInput extends InputStream {
+    volatile boolean reading = false;
+    volatile boolean closed = false;
+    volatile boolean closedWhileReading = false;
+
+    public int read() {
+      return 'x';
+    }
+
+    public int read(byte[] b, int off, int len) {
+      reading = true;
+      try {
+        Thread.sleep(200);
+      } catch (InterruptedException e) {
+        // Not interruptible, like a file read
+      }
+      reading = false;
+      return len;
+    }
+
+    public void close() {
+      closedWhileReading = reading;
+      closed = true;
+    }
+  }
+
+  // An early stop: the stream is closed after the first bytes, the reader thread reading the next block
+  @Test
+  public void closeStopsTheReaderFirst()
+  throws Exception {
+    GraphMLImporter.metrics = new GraphMLImporter.Metrics();
+    SlowInput slow = new SlowInput();
+    GraphMLImporter.ReaderThreadInputStream input = new GraphMLImporter.ReaderThreadInputStream(slow);
+    byte[] b = new byte[10];
+    assertEquals(10, input.read(b, 0, 10));
+    input.close();
+    assertFalse(input.thread.isAlive());
+    assertTrue(slow.closed);
+    assertFalse(slow.closedWhileReading);
+    assertNull(input.failure);
+  }
+}
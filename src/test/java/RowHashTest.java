@@ -0,0 +1,115 @@
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+import javax.xml.stream.*;
+import org.junit.*;
+
+// Hashes of the rows compared by a MERGE: the rows read from the graph, and those of the file, whether
+// their values were kept in memory or streamed from a spill file, must hash the same
+public class RowHashTest {
+
+  @Before
+  public void setUp() {
+    GraphMLImporter.nodeKeys.clear();
+    GraphMLImporter.edgeKeys.clear();
+    GraphMLImporter.rejects = new GraphMLImporter.Rejects();
+  }
+
+  @After
+  public void tearDown() {
+    GraphMLImporter.largeValues = 4000;
+    GraphMLImporter.Spill.deleteAll();
+  }
+
+  // Streamed in several chunks (the entities and CDATA split the text), hashed from the spill file
+  @Test
+  public void largeValueHashesAsString()
+  throws Exception {
+    String value = text(9000) + "&amp;" + text(3000) + "<![CDATA[<b>]]>" + text(2000);
+    String expected = value.replace("&amp;", "&").replace("<![CDATA[", "").replace("]]>", "");
+    GraphMLImporter.Props props = vertex(value);
+    GraphMLImporter.LargeValue large = props.large(0);
+    assertNotNull(large);
+    assertEquals(expected.length(), large.length);
+    assertEquals(GraphMLImporter.RowHash.hash(expected), large.hash());
+    assertEquals(GraphMLImporter.RowHash.hash(expected), GraphMLImporter.RowHash.hash(null, large));
+  }
+
+  // The same vertex hashes the same with its value streamed or kept in memory
+  @Test
+  public void vertexHashesAlikeStreamedOrNot()
+  throws Exception {
+    String value = text(6000);
+    GraphMLImporter.largeValues = 4000;
+    long streamed = hash(vertex(value));
+    GraphMLImporter.largeValues = 0;
+    long inMemory = hash(vertex(value));
+    assertEquals(inMemory, streamed);
+    assertNotEquals(inMemory, hash(vertex(value + "x")));
+  }
+
+  // The rows read from the graph have no typed value: only the string is hashed
+  @Test
+  public void typedValuesHashAsTheirString()
+  throws Exception {
+    GraphMLImporter.RowHash file = new GraphMLImporter.RowHash();
+    file.vertexRow(1, "P", "AGE", 2, "29", 29L);
+    GraphMLImporter.RowHash graph = new GraphMLImporter.RowHash();
+    graph.vertexRow(1, "P", "AGE", 2, "29", null);
+    assertEquals(graph.value, file.value);
+  }
+
+  // The order of the rows of an element does not matter
+  @Test
+  public void rowOrderDoesNotMatter()
+  throws Exception {
+    GraphMLImporter.RowHash a = new GraphMLImporter.RowHash();
+    a.edgeRow(1, 2, 3, "E", "W", 4, "0.5", null);
+    a.edgeRow(1, 2, 3, "E", "N", 1, "x", null);
+    GraphMLImporter.RowHash b = new GraphMLImporter.RowHash();
+    b.edgeRow(1, 2, 3, "E", "N", 1, "x", null);
+    b.edgeRow(1, 2, 3, "E", "W", 4, "0.5", null);
+    assertEquals(a.value, b.value);
+    GraphMLImporter.RowHash reversed = new GraphMLImporter.RowHash();
+    reversed.edgeRow(1, 3, 2, "E", "N", 1, "x", null);
+    reversed.edgeRow(1, 3, 2, "E", "W", 4, "0.5", null);
+    assertNotEquals(a.value, reversed.value);
+  }
+
+  static long hash(GraphMLImporter.Props props)
+  throws Exception {
+    GraphMLImporter.RowHash hash = new GraphMLImporter.RowHash();
+    GraphMLImporter.writeVertex(hash, 1, "P", props);
+    return hash.value;
+  }
+
+  // Properties of a vertex with a doc property of this (escaped) value, as parsed
+  static GraphMLImporter.Props vertex(String value)
+  throws Exception {
+    String graph =
+      "<graphml xmlns=\"http://graphml.graphdrawing.org/xmlns\">" +
+      "<key id=\"doc\" for=\"node\" attr.name=\"doc\" attr.type=\"string\"/>" +
+      "<graph id=\"G\"><node id=\"1\"><data key=\"doc\">" + value + "</data></node></graph></graphml>";
+    XMLStreamReader xmlReader = XMLInputFactory.newInstance().createXMLStreamReader(new StringReader(graph));
+    List<GraphMLImporter.Props> parsed = new ArrayList<>();
+    GraphMLImporter.parse(xmlReader, new GraphMLImporter.ElementHandler() {
+      public boolean vertex(long vid, String vLabel, GraphMLImporter.Props vProps) {
+        parsed.add(vProps.copy());
+        return true;
+      }
+
+      public boolean edge(long eid, String eLabel, long svid, long dvid, GraphMLImporter.Props eProps) {
+        return true;
+      }
+    });
+    return parsed.get(0);
+  }
+
+  static String text(int length) {
+    StringBuilder s = new StringBuilder();
+    while (s.length() < length)
+      s.append((char) ('a' + s.length() % 26));
+    return s.toString();
+  }
+}
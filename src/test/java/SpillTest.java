@@ -0,0 +1,100 @@
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+import org.junit.*;
+
+// Spill files of the large values: reused once the values are released, bounded while they are pending
+public class SpillTest {
+
+  @After
+  public void tearDown() {
+    GraphMLImporter.Spill.deleteAll();
+  }
+
+  // Once its values are released, the file is written again from its start
+  @Test
+  public void reusedOnceReleased()
+  throws Exception {
+    GraphMLImporter.LargeValue first = value(text('a', 5000));
+    GraphMLImporter.LargeValue second = value(text('b', 5000));
+    assertEquals(5000, second.start);
+    first.release();
+    second.release();
+    GraphMLImporter.LargeValue third = value(text('c', 5000));
+    assertSame(first.spill, third.spill);
+    assertEquals(0, third.start);
+    assertEquals(text('c', 5000), read(third));
+  }
+
+  // A pending value keeps its place
+  @Test
+  public void pendingValueKept()
+  throws Exception {
+    GraphMLImporter.LargeValue first = value(text('a', 5000));
+    GraphMLImporter.LargeValue second = value(text('b', 5000));
+    second.release();
+    GraphMLImporter.LargeValue third = value(text('c', 5000));
+    assertEquals(10000, third.start);
+    assertEquals(text('a', 5000), read(first));
+  }
+
+  // Only MAX_VALUE characters of a longer value are written, even from a larger chunk
+  @Test
+  public void writtenUpToMaxValue()
+  throws Exception {
+    GraphMLImporter.LargeValue large = GraphMLImporter.Spill.current().start();
+    large.append(text('a', GraphMLImporter.MAX_VALUE - 10));
+    large.append(text('b', 4000));
+    large.append(text('c', 4000));
+    large.finish();
+    assertEquals(GraphMLImporter.MAX_VALUE + 7990, large.length);
+    assertEquals(GraphMLImporter.MAX_VALUE, large.written);
+    assertEquals(GraphMLImporter.MAX_VALUE, large.spill.chars);
+    GraphMLImporter.LargeValue next = value(text('d', 5000));
+    assertEquals(GraphMLImporter.MAX_VALUE, next.start);
+  }
+
+  // Past SEGMENT_CHARS with a value pending, the thread moves to a new file, deleted with its last value
+  @Test
+  public void fullFileDeletedWithItsLastValue()
+  throws Exception {
+    GraphMLImporter.Spill spill = GraphMLImporter.Spill.current();
+    GraphMLImporter.LargeValue pending = spill.start();
+    String chunk = text('a', 1 << 20);
+    while (spill.chars < GraphMLImporter.Spill.SEGMENT_CHARS)
+      spill.append(chunk, 0, chunk.length());
+    pending.finish();
+    GraphMLImporter.LargeValue next = value(text('b', 5000));
+    assertNotSame(spill, next.spill);
+    assertTrue(spill.file.exists());
+    pending.release();
+    assertFalse(spill.file.exists());
+    assertEquals(text('b', 5000), read(next));
+  }
+
+  static GraphMLImporter.LargeValue value(String text)
+  throws IOException {
+    GraphMLImporter.LargeValue large = GraphMLImporter.Spill.current().start();
+    large.append(text);
+    large.finish();
+    return large;
+  }
+
+  static String read(GraphMLImporter.LargeValue large)
+  throws IOException {
+    StringBuilder s = new StringBuilder();
+    char[] chars = new char[4096];
+    try (Reader r = large.reader()) {
+      for (int n; (n = r.read(chars, 0, chars.length)) > 0; )
+        s.append(chars, 0, n);
+    }
+    return s.toString();
+  }
+
+  static String text(char c, int length) {
+    char[] chars = new char[length];
+    Arrays.fill(chars, c);
+    return new String(chars);
+  }
+}
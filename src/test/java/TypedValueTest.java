@@ -0,0 +1,57 @@
+import static org.junit.Assert.*;
+
+import java.time.*;
+import java.util.Locale;
+import org.junit.*;
+
+// Property values converted to the type of their key, the same way whatever the locale
+public class TypedValueTest {
+
+  @Test
+  public void numbers() {
+    assertEquals(29L, GraphMLImporter.typedValue(2, " 29 "));
+    assertEquals(-9223372036854775808L, GraphMLImporter.typedValue(7, "-9223372036854775808"));
+    assertEquals(0.5, GraphMLImporter.typedValue(4, "0.5"));
+    assertEquals(1.5e10, GraphMLImporter.typedValue(3, "1.5E10"));
+  }
+
+  @Test
+  public void numbersIgnoreTheLocale() {
+    Locale locale = Locale.getDefault();
+    Locale.setDefault(Locale.FRANCE);
+    try {
+      assertEquals(0.5, GraphMLImporter.typedValue(4, "0.5"));
+    } finally {
+      Locale.setDefault(locale);
+    }
+  }
+
+  @Test
+  public void dates() {
+    assertEquals(OffsetDateTime.of(2020, 11, 25, 0, 0, 0, 0, ZoneOffset.UTC), GraphMLImporter.typedValue(5, "2020-11-25"));
+    assertEquals(OffsetDateTime.of(2020, 11, 25, 18, 16, 31, 0, ZoneOffset.UTC), GraphMLImporter.typedValue(5, "2020-11-25T18:16:31"));
+    assertEquals(OffsetDateTime.of(2020, 11, 25, 18, 16, 31, 521000000, ZoneOffset.ofHours(1)),
+      GraphMLImporter.typedValue(5, "2020-11-25T18:16:31.521+01:00"));
+  }
+
+  // Strings and booleans only go to V
+  @Test
+  public void stringsAndBooleans() {
+    assertNull(GraphMLImporter.typedValue(1, "anything"));
+    assertNull(GraphMLImporter.typedValue(6, "TRUE"));
+    assertNull(GraphMLImporter.typedValue(6, "false"));
+  }
+
+  @Test
+  public void malformedValuesAreRefused() {
+    Object[][] malformed = {{2, "twenty"}, {2, "1.5"}, {2, ""}, {7, "9223372036854775808"}, {4, "NaN"}, {4, "Infinity"},
+      {4, "0,5"}, {6, "maybe"}, {5, "25/11/2020"}, {5, "2020-13-01"}};
+    for (Object[] value : malformed)
+      try {
+        GraphMLImporter.typedValue((Integer) value[0], (String) value[1]);
+        fail("Accepted " + value[1] + " for type " + value[0]);
+      } catch (IllegalArgumentException | DateTimeException e) {
+        // Rejected, as expected
+      }
+  }
+}
@@ -0,0 +1,98 @@
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.sql.*;
+import java.util.*;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+// Validation of an append through the JDBC sink, into an embedded H2 database
+public class ValidatorTest {
+
+  static final String GRAPH = "G";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  Connection conn;
+
+  @Before
+  public void setUp()
+  throws Exception {
+    conn = DriverManager.getConnection("jdbc:h2:mem:validate;MODE=Oracle", "sa", "");
+    conn.setAutoCommit(false);
+    GraphMLImporter.sink = new GraphMLImporter.JdbcSink();
+    GraphMLImporter.rejects = new GraphMLImporter.Rejects();
+    GraphMLImporter.metrics = new GraphMLImporter.Metrics();
+    GraphMLImporter.outputDir = folder.getRoot().getPath();
+    GraphMLImporter.nodeKeys.clear();
+    GraphMLImporter.edgeKeys.clear();
+  }
+
+  @After
+  public void tearDown()
+  throws Exception {
+    GraphMLImporter.validator = null;
+    GraphMLImporter.outputDir = null;
+    conn.close();
+  }
+
+  // Edges to the vertices of an earlier load are kept, only those to vertices found nowhere are removed
+  @Test
+  public void appendKeepsEdgesToLoadedVertices()
+  throws Exception {
+    load("CREATE", null, graph("a", "<node id=\"1\"/><node id=\"2\"/>", edge(1, 1, 2)));
+    GraphMLImporter.Validator validator = new GraphMLImporter.Validator(GRAPH, true, true);
+    load("APPEND", validator, graph("b", "<node id=\"3\"/>", edge(2, 1, 3) + edge(3, 3, 99) + edge(4, 98, 2)));
+    assertEquals(2, validator.dangling);
+    assertEquals(Arrays.asList(1L, 2L), edges());
+  }
+
+  // Without the lookup (a new graph), the same edges are dangling
+  @Test
+  public void createReportsEdgesToUnknownVertices()
+  throws Exception {
+    GraphMLImporter.Validator validator = new GraphMLImporter.Validator(GRAPH, false, false);
+    load("CREATE", validator, graph("b", "<node id=\"3\"/>", edge(2, 1, 3) + edge(3, 3, 99)));
+    assertEquals(2, validator.dangling);
+    assertEquals(Arrays.asList(2L, 3L), edges());
+  }
+
+  void load(String action, GraphMLImporter.Validator validator, File file)
+  throws Exception {
+    GraphMLImporter.validator = validator;
+    GraphMLImporter.sink.open(conn, GRAPH, action);
+    GraphMLImporter.processFile(Arrays.asList(file.getPath()), conn, GRAPH, 0, 0, 0, null, null);
+  }
+
+  List<Long> edges()
+  throws SQLException {
+    List<Long> eids = new ArrayList<>();
+    try (Statement s = conn.createStatement();
+         ResultSet r = s.executeQuery("SELECT eid FROM " + GRAPH + "GE$ ORDER BY eid")) {
+      while (r.next())
+        eids.add(r.getLong(1));
+    }
+    return eids;
+  }
+
+  static String edge(long eid, long svid, long dvid) {
+    return "<edge id=\"" + eid + "\" source=\"" + svid + "\" target=\"" + dvid + "\"><data key=\"labelE\">knows</data></edge>";
+  }
+
+  File graph(String name, String vertices, String edges)
+  throws IOException {
+    File file = folder.newFile("graph-" + name + ".graphml");
+    try (PrintWriter w = new PrintWriter(file, "UTF-8")) {
+      w.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+      w.println("<graphml xmlns=\"http://graphml.graphdrawing.org/xmlns\">");
+      w.println("  <key id=\"labelE\" for=\"edge\" attr.name=\"labelE\" attr.type=\"string\" />");
+      w.println("  <graph id=\"G\" edgedefault=\"directed\">");
+      w.println("    " + edges);
+      w.println("    " + vertices);
+      w.println("  </graph>");
+      w.println("</graphml>");
+    }
+    return file;
+  }
+}